@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generated text of a given size and shape. The same size and shape always give the same text.
+ */
+public enum Corpus {
+    // source code or a log
+    SHORT_LINES(10, 120, "\n"),
+    // prose with a paragraph on each line
+    LONG_LINES(500, 4000, "\n"),
+    CRLF(10, 120, "\r\n"),
+    // minified json or javascript, a single line
+    MINIFIED(0, 0, "");
+
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do "
+            + "eiusmod tempor incididunt ut labore et dolore magna aliqua { } ( ) ; = + if for return";
+
+    private final int minLine, maxLine;
+    private final String newLine;
+
+    Corpus(int minLine, int maxLine, String newLine) {
+        this.minLine = minLine;
+        this.maxLine = maxLine;
+        this.newLine = newLine;
+    }
+
+    public String generate(int chars) {
+        StringBuilder stringBuilder = new StringBuilder(chars);
+        try {
+            write(stringBuilder, chars);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * The corpus as a UTF-8 file, it is written only the first time.
+     */
+    public File file(int bytes) throws IOException {
+        File directory = new File(System.getProperty("corpora.dir", System.getProperty("java.io.tmpdir")));
+        File file = new File(directory, name().toLowerCase() + "-" + bytes + ".txt");
+        if (file.length() == bytes)
+            return file;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            // the text is ascii, one char is one byte
+            write(writer, bytes);
+        }
+        return file;
+    }
+
+    private void write(Appendable out, int chars) throws IOException {
+        Random random = new Random(chars);
+        int written = 0;
+        int lineEnd = nextLineEnd(random, 0);
+        while (written < chars) {
+            if (written == lineEnd && chars - written >= newLine.length()) {
+                out.append(newLine);
+                written += newLine.length();
+                lineEnd = nextLineEnd(random, written);
+                continue;
+            }
+            int start = random.nextInt(WORDS.length());
+            int count = Math.min(Math.min(WORDS.length() - start, chars - written), lineEnd - written);
+            out.append(WORDS, start, start + count);
+            written += count;
+        }
+    }
+
+    private int nextLineEnd(Random random, int position) {
+        if (maxLine == 0)
+            return Integer.MAX_VALUE;
+        return position + minLine + random.nextInt(maxLine - minLine);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import shared.turboeditor.home.highlight.IncrementalHighlighter;
+import shared.turboeditor.home.highlight.Language;
+import shared.turboeditor.home.highlight.TokenBuffer;
+
+/**
+ * The highlighting of a whole file as it is opened. HighlightDriver is Kotlin and tied to the
+ * resources of the app, this is what it runs before it maps the styles to colors. The jmhPerChar
+ * task divides the scores by the chars of the text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HighlightBenchmark {
+
+    @Param({"HTML", "CSS", "JAVA", "PYTHON", "LUA", "PHP", "SQL", "MARKDOWN"})
+    public SourceCorpus language;
+
+    @Param({"SOURCE", "LONG_LINE", "UNTERMINATED_STRING"})
+    public SourceCorpus.Shape shape;
+
+    @Param({"4096", "65536", "1048576"})
+    public int chars;
+
+    private String text;
+    private IncrementalHighlighter highlighter;
+    private final TokenBuffer tokens = new TokenBuffer();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = language.generate(chars, shape);
+        highlighter = new IncrementalHighlighter(Language.forExtension(language.getFileExtension()));
+        // what the patterns cost on a long line, the app would leave it plain
+        highlighter.setMaxLineLength(Integer.MAX_VALUE);
+        // the buffers grow to the size of the text once
+        highlight();
+    }
+
+    @Benchmark
+    public TokenBuffer highlight() {
+        tokens.clear();
+        highlighter.setText(text);
+        highlighter.highlight(text, 0, text.length(), tokens);
+        return tokens;
+    }
+}
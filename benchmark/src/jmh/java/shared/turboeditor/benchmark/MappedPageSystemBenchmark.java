@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import shared.turboeditor.home.texteditor.MappedPageScanner;
+import shared.turboeditor.home.texteditor.MappedText;
+import shared.turboeditor.home.texteditor.PageSystem;
+import shared.turboeditor.home.texteditor.PageTable;
+
+/**
+ * The document of a file opened mapped, its pages are decoded from the file when they are read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MappedPageSystemBenchmark {
+
+    private static final PageSystem.PageSystemInterface NO_LISTENER = page -> { };
+
+    // megabytes
+    @Param({"1", "64", "1024"})
+    public int size;
+
+    @Param({"SHORT_LINES", "LONG_LINES", "CRLF", "MINIFIED"})
+    public Corpus corpus;
+
+    private File file;
+    private FileInputStream stream;
+    private PageSystem pageSystem;
+    private String pageText;
+    private String editedPageText;
+    private final Random random = new Random(42);
+    private boolean edited;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = corpus.file(size << 20);
+        stream = new FileInputStream(file);
+        pageSystem = new PageSystem(NO_LISTENER, open(stream));
+        pageText = pageSystem.getCurrentPageText();
+        int line = pageText.indexOf('\n');
+        editedPageText = new StringBuilder(pageText).insert(line < 0 ? pageText.length() / 2 : line, "edit").toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pageSystem.close();
+    }
+
+    /**
+     * Opening the file: the scan that finds the pages and the page system over them.
+     */
+    @Benchmark
+    public int construct() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            PageSystem pageSystem = new PageSystem(NO_LISTENER, open(stream));
+            return pageSystem.getPageCount();
+        }
+    }
+
+    @Benchmark
+    public String goToPage() {
+        pageSystem.goToPage(random.nextInt(pageSystem.getPageCount()));
+        return pageSystem.getCurrentPageText();
+    }
+
+    @Benchmark
+    public int savePage() {
+        pageSystem.goToPage(0);
+        edited = !edited;
+        pageSystem.savePage(edited ? editedPageText : pageText);
+        return pageSystem.getPageLength(0);
+    }
+
+    @Benchmark
+    public int countLines() {
+        int line = random.nextInt(pageSystem.getLineCount());
+        int page = pageSystem.getPageOfLine(line);
+        return pageSystem.getStartingLine(page) + pageSystem.getLineCount(page);
+    }
+
+    private static MappedText open(FileInputStream stream) throws IOException {
+        MappedPageScanner scanner = new MappedPageScanner(stream.getChannel(), "UTF-8");
+        while (scanner.scanNextPage()) {
+            // the whole file
+        }
+        PageTable pageTable = scanner.getPageTable();
+        return new MappedText(stream, stream.getChannel(), pageTable);
+    }
+}
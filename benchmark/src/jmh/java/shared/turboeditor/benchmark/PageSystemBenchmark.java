@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import shared.turboeditor.home.texteditor.PageSystem;
+
+/**
+ * The in memory document, the text of a file that has been read as a String.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PageSystemBenchmark {
+
+    private static final PageSystem.PageSystemInterface NO_LISTENER = page -> { };
+
+    // megabytes, bigger files are opened mapped
+    @Param({"1", "16", "128"})
+    public int size;
+
+    @Param({"SHORT_LINES", "LONG_LINES", "CRLF", "MINIFIED"})
+    public Corpus corpus;
+
+    private String text;
+    private PageSystem pageSystem;
+    private String pageText;
+    private String editedPageText;
+    private final Random random = new Random(42);
+    private boolean edited;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = corpus.generate(size << 20);
+        pageSystem = new PageSystem(NO_LISTENER, text, true);
+        pageText = pageSystem.getCurrentPageText();
+        int line = pageText.indexOf('\n');
+        editedPageText = new StringBuilder(pageText).insert(line < 0 ? pageText.length() / 2 : line, "edit").toString();
+    }
+
+    @Benchmark
+    public PageSystem construct() {
+        return new PageSystem(NO_LISTENER, text, true);
+    }
+
+    @Benchmark
+    public String goToPage() {
+        pageSystem.goToPage(random.nextInt(pageSystem.getPageCount()));
+        return pageSystem.getCurrentPageText();
+    }
+
+    @Benchmark
+    public int savePage() {
+        // the same page is typed in and restored, the document keeps its size
+        pageSystem.goToPage(0);
+        edited = !edited;
+        pageSystem.savePage(edited ? editedPageText : pageText);
+        return pageSystem.getPageLength(0);
+    }
+
+    @Benchmark
+    public String getAllText() {
+        pageSystem.goToPage(0);
+        return pageSystem.getAllText(edited ? editedPageText : pageText);
+    }
+
+    @Benchmark
+    public int countLines() {
+        int line = random.nextInt(pageSystem.getLineCount());
+        int page = pageSystem.getPageOfLine(line);
+        return pageSystem.getStartingLine(page) + pageSystem.getLineCount(page);
+    }
+}
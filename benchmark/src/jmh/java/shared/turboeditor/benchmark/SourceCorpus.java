@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generated source code of a language, made of typical lines with random names and numbers.
+ * The same language, shape and size always give the same text.
+ */
+public enum SourceCorpus {
+    HTML("html",
+            "<!DOCTYPE html>",
+            "<div class=\"$w\" id=\"$w-$n\">",
+            "  <a href=\"https://example.com/$w\" title='$w $w'>$w $w</a>",
+            "  <img src=\"$w.png\" width=\"$n\" height=\"$n\" alt=\"$w\"/>",
+            "  <p>$w $w $w, $w $w $w.</p>",
+            "  <!-- $w $w -->",
+            "  <input type=\"text\" name=\"$w\" value=\"$w\" disabled>",
+            "</div>"),
+    CSS("css",
+            ".$w > .$w-$w {",
+            "  margin: $npx $npx 0 auto;",
+            "  color: #$n;",
+            "  font-family: \"$w\", sans-serif;",
+            "  /* $w $w */",
+            "  background: url('$w.png') no-repeat;",
+            "}"),
+    JAVA("java",
+            "public class $w extends $w implements $w {",
+            "    private static final int $w = $n;",
+            "    // $w $w $w",
+            "    /* $w $w */",
+            "    public String $w(int $w, String $w) {",
+            "        if ($w != null && $w.length() > $n) return \"$w\" + $w;",
+            "        for (int i = 0; i < $n; i++) $w.add($w[i] * $n.5);",
+            "    }",
+            "}"),
+    PYTHON("py",
+            "import $w",
+            "from $w import $w",
+            "def $w($w, $w=None):",
+            "    # $w $w",
+            "    if $w is not None and $w > $n:",
+            "        return '$w' % $w",
+            "    for $w in range($n):",
+            "        yield [$w.$w($w) for $w in $w]",
+            "class $w(object):"),
+    LUA("lua",
+            "local $w = require(\"$w\")",
+            "function $w.$w($w, $w)",
+            "  -- $w $w",
+            "  if $w == nil then return string.format(\"%d $w\", $n) end",
+            "  for i = 1, $n do table.insert($w, i * $n) end",
+            "  local $w = { $w = $n, $w = '$w' }",
+            "end"),
+    PHP("php",
+            "<?php",
+            "namespace $w;",
+            "function $w($$w, $$w = null) {",
+            "    // $w $w",
+            "    $$w = array('$w' => $n, \"$w\" => $$w);",
+            "    if (isset($$w[$n])) { echo \"$w $$w\"; }",
+            "    return $$w->$w($n);",
+            "}"),
+    SQL("sql",
+            "SELECT $w.$w, $w.$w, COUNT(*) AS $w",
+            "FROM $w JOIN $w ON $w.$w = $w.$w",
+            "WHERE $w.$w > $n AND $w LIKE '$w%'",
+            "GROUP BY $w.$w ORDER BY $w DESC;",
+            "INSERT INTO $w ($w, $w) VALUES ($n, '$w');",
+            "CREATE TABLE $w ($w INTEGER PRIMARY KEY, $w VARCHAR($n) NOT NULL);"),
+    MARKDOWN("md",
+            "# $w $w",
+            "",
+            "$w $w $w, $w $w *$w* $w **$w**.",
+            "- $w $w [$w](https://example.com/$w/$n) $w",
+            "    $w($w, $n)",
+            "> $w $w \"$w\" $w $n.");
+
+    public enum Shape {
+        // the lines as they are
+        SOURCE,
+        // the whole text on a single line, like a minified file
+        LONG_LINE,
+        // every line opens a string that is never closed
+        UNTERMINATED_STRING
+    }
+
+    private static final String[] WORDS = {
+            "value", "item", "count", "name", "list", "index", "result", "node", "parent", "child",
+            "data", "text", "size", "width", "height", "color", "user", "order", "total", "key"
+    };
+
+    private final String fileExtension;
+    private final String[] lines;
+
+    SourceCorpus(String fileExtension, String... lines) {
+        this.fileExtension = fileExtension;
+        this.lines = lines;
+    }
+
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    public String generate(int chars, Shape shape) {
+        Random random = new Random(chars);
+        StringBuilder text = new StringBuilder(chars + 200);
+        while (text.length() < chars) {
+            String line = lines[random.nextInt(lines.length)];
+            if (shape == Shape.UNTERMINATED_STRING)
+                text.append('"');
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '$' && i + 1 < line.length() && line.charAt(i + 1) == 'w') {
+                    text.append(WORDS[random.nextInt(WORDS.length)]);
+                    i++;
+                } else if (c == '$' && i + 1 < line.length() && line.charAt(i + 1) == 'n') {
+                    text.append(random.nextInt(1000));
+                    i++;
+                } else if (shape != Shape.UNTERMINATED_STRING || c != '"' && c != '\'') {
+                    text.append(c);
+                }
+            }
+            text.append(shape == Shape.LONG_LINE ? ' ' : '\n');
+        }
+        text.setLength(chars);
+        return text.toString();
+    }
+}
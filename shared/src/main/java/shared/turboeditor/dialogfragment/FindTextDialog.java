@@ -32,7 +32,7 @@ import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,12 +46,8 @@ public class FindTextDialog extends DialogFragment {
     private EditText textToFind, textToReplace;
     private CheckBox regexCheck, replaceCheck, matchCaseCheck;
 
-    public static FindTextDialog newInstance(String allText) {
-        final FindTextDialog f = new FindTextDialog();
-        final Bundle args = new Bundle();
-        args.putString("allText", allText);
-        f.setArguments(args);
-        return f;
+    public static FindTextDialog newInstance() {
+        return new FindTextDialog();
     }
 
     @Override
@@ -119,27 +115,50 @@ public class FindTextDialog extends DialogFragment {
         if (textToFind.getText().toString().isEmpty()) {
             this.dismiss();
         } else {
+            SearchDialogInterface searchDialogInterface = getSearchDialogInterface();
+            if (searchDialogInterface == null) {
+                this.dismiss();
+                return;
+            }
             // we disable the okButton while we search
-            new SearchTask().execute();
+            new SearchTask(searchDialogInterface.getTextToSearch()).execute();
         }
     }
 
+    private SearchDialogInterface getSearchDialogInterface() {
+        // the class that called this Dialog should implement the SearchDialogIterface
+        SearchDialogInterface searchDialogInterface;
+        searchDialogInterface = ((SearchDialogInterface) getTargetFragment());
+        if (searchDialogInterface == null)
+            searchDialogInterface = ((SearchDialogInterface) getActivity());
+        return searchDialogInterface;
+    }
+
     public interface SearchDialogInterface {
+        /**
+         * The text is read on another thread, it must not change while it is searched.
+         */
+        CharSequence getTextToSearch();
+
         void onSearchDone(SearchResult searchResult);
     }
 
     private class SearchTask extends AsyncTask<Void, Void, Void> {
 
-        LinkedList<Integer> foundIndex;
+        final CharSequence allText;
+        ArrayList<Integer> foundIndex;
         boolean foundSomething;
 
+        SearchTask(CharSequence allText) {
+            this.allText = allText;
+        }
+
         @Override
         protected Void doInBackground(Void... params) {
-            String allText = getArguments().getString("allText");
             String whatToSearch = textToFind.getText().toString();
             boolean caseSensitive = matchCaseCheck.isChecked();
             boolean isRegex = regexCheck.isChecked();
-            foundIndex = new LinkedList<>();
+            foundIndex = new ArrayList<>();
             Matcher matcher = null;
             foundSomething = false;
 
@@ -161,17 +180,17 @@ public class FindTextDialog extends DialogFragment {
                     foundIndex.add(matcher.start());
                 }
             } else {
-                if (caseSensitive == false) { // by default is case sensitive
-                    whatToSearch = whatToSearch.toLowerCase();
-                    allText = allText.toLowerCase();
-                }
-                int index = allText.indexOf(whatToSearch);
-                while (index >= 0) {
+                // by default is case sensitive
+                int flags = caseSensitive ? Pattern.LITERAL : Pattern.LITERAL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                matcher = Pattern.compile(whatToSearch, flags).matcher(allText);
+                int index = 0;
+                // matches can overlap
+                while (index <= allText.length() && matcher.find(index)) {
                     foundSomething = true;
 
-                    foundIndex.add(index);
+                    foundIndex.add(matcher.start());
 
-                    index = allText.indexOf(whatToSearch, index + 1);
+                    index = matcher.start() + 1;
                 }
             }
 
@@ -182,11 +201,7 @@ public class FindTextDialog extends DialogFragment {
         protected void onPostExecute(Void aVoid) {
             super.onPostExecute(aVoid);
             if (foundSomething) {
-                // the class that called this Dialog should implement the SearchDialogIterface
-                SearchDialogInterface searchDialogInterface;
-                searchDialogInterface = ((SearchDialogInterface) getTargetFragment());
-                if (searchDialogInterface == null)
-                    searchDialogInterface = ((SearchDialogInterface) getActivity());
+                SearchDialogInterface searchDialogInterface = getSearchDialogInterface();
 
                 // if who called this has not implemented the interface we return nothing
                 if (searchDialogInterface == null)
@@ -43,7 +43,6 @@ import shared.turboeditor.views.DialogHelper
 @SuppressLint("ValidFragment")
 class NewFileDetailsDialog(
         var currentUri: GreatUri,
-        var fileText: String,
         var fileEncoding: String) : DialogFragment() {
 
     private var mName: EditText? = null
@@ -95,7 +94,7 @@ class NewFileDetailsDialog(
 
                         val newUri = GreatUri(Uri.fromFile(file), file.absolutePath, file.name)
                         if (activity != null) {
-                            (activity as MainActivity).startSavingFile(newUri, fileText, fileEncoding)
+                            (activity as MainActivity).startSavingFile(newUri, fileEncoding)
                         }
                     }
                 }
@@ -35,7 +35,6 @@ import shared.turboeditor.views.DialogHelper
 class SaveFileDialog : DialogFragment() {
 
     private var uri: GreatUri by FragmentArgumentDelegate()
-    private var text: String by FragmentArgumentDelegate()
     private var encoding: String by FragmentArgumentDelegate()
     private var openNewFileAfter: Boolean by FragmentArgumentDelegate()
     private var newUri: GreatUri by FragmentArgumentDelegate()
@@ -67,10 +66,10 @@ class SaveFileDialog : DialogFragment() {
                 .setPositiveButton(R.string.salva
                 ) { _, _ ->
                     if (uri.fileName?.isEmpty() == true) {
-                        val dialogFrag = NewFileDetailsDialog(uri, text, encoding)
+                        val dialogFrag = NewFileDetailsDialog(uri, encoding)
                         dialogFrag.show(fragmentManager!!, "dialog")
                     } else {
-                        saveDialogCallback?.startSavingFile(uri, text, encoding)
+                        saveDialogCallback?.startSavingFile(uri, encoding)
                     }
                 }
                 .setNeutralButton(android.R.string.cancel, null)
@@ -86,19 +85,21 @@ class SaveFileDialog : DialogFragment() {
     interface ISaveDialog {
         fun userDoesNotWantToSave(openNewFile: Boolean, newUri: GreatUri)
 
-        fun startSavingFile(uri: GreatUri, text: String, encoding: String)
+        /**
+         * The text is taken from the document when the user confirms, it is never copied in the
+         * arguments of the dialog.
+         */
+        fun startSavingFile(uri: GreatUri, encoding: String)
     }
 
     companion object {
 
-        fun create(uri: GreatUri?, text: String?, encoding: String?, openNewFileAfter: Boolean = false,
+        fun create(uri: GreatUri?, encoding: String?, openNewFileAfter: Boolean = false,
                    newUri: GreatUri = GreatUri(Uri.EMPTY, "", "")) =
 
             SaveFileDialog().apply {
                 if (uri != null)
                     this.uri = uri
-                if (text != null)
-                    this.text = text
                 if (encoding != null)
                     this.encoding = encoding
                 this.openNewFileAfter = openNewFileAfter
@@ -4,17 +4,33 @@ import android.app.Activity
 import android.net.Uri
 import android.text.TextUtils
 import com.spazedog.lib.rootfw4.RootFW
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.withContext
+import org.apache.commons.io.input.CountingInputStream
 import org.apache.commons.io.FilenameUtils
 import shared.turboeditor.home.texteditor.FileUtils
+import shared.turboeditor.home.texteditor.MappedPageScanner
+import shared.turboeditor.home.texteditor.MappedText
+import shared.turboeditor.home.texteditor.PageTable
 import shared.turboeditor.preferences.PreferenceHelper
 import shared.turboeditor.util.GreatUri
 import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
 import java.io.IOException
+import java.io.InputStream
 import java.io.InputStreamReader
 import java.util.*
 
 interface IOpenFileManager {
 
+    /**
+     * Opens the file and returns before reading it, the pages are read while the returned
+     * [Success.pages] is collected.
+     */
     suspend fun openFile(newUri: GreatUri, newFileText: String): Result
 }
 
@@ -26,9 +42,17 @@ class OpenFileManager(private val activity: Activity) : IOpenFileManager {
 
     private lateinit var encoding: String
 
+    private var mappedText: MappedText? = null
+
+    private var pages: Flow<LoadedPage>? = null
+
     private var isRootRequired: Boolean = false
 
-    override suspend fun openFile(newUri: GreatUri, newFileText: String): Result {
+    private val pageIndexCache by lazy { PageIndexCache(File(activity.cacheDir, PageIndexCache.DIRECTORY)) }
+
+    override suspend fun openFile(newUri: GreatUri, newFileText: String): Result = withContext(Dispatchers.IO) {
+        mappedText = null
+        pages = null
         try {
             val fileExtension: String
 
@@ -38,6 +62,7 @@ class OpenFileManager(private val activity: Activity) : IOpenFileManager {
                 fileText = newFileText
             } else {
                 val filePath = newUri.filePath!!
+                fileText = ""
 
                 // if the uri has no path
                 if (TextUtils.isEmpty(filePath)) {
@@ -53,24 +78,24 @@ class OpenFileManager(private val activity: Activity) : IOpenFileManager {
                     // if we cannot read the file, root permission required
                     if (isRootRequired) {
                         readUri(newUri.uri!!, filePath, true)
-                    } else {
+                    } else if (!openMapped(filePath)) {
                         readUri(newUri.uri!!, filePath, false)
                     }// if we can read the file associated with the uri
                 }// if the uri has a path
             }
 
-            return Success(fileText = fileText, fileName = fileName, fileExtension = fileExtension, encoding = encoding)
+            Success(fileText = fileText, fileName = fileName, fileExtension = fileExtension, encoding = encoding, mappedText = mappedText, pages = pages)
         } catch (e: Exception) {
             fileText = ""
-            return Failure
+            Failure
         }
     }
 
     @Throws(IOException::class)
     private fun readUri(uri: Uri, path: String, asRoot: Boolean) {
         var buffer: BufferedReader? = null
-        val stringBuilder = StringBuilder()
-        var line: String?
+        var countingStream: CountingInputStream? = null
+        var totalBytes = -1L
 
         if (asRoot) {
 
@@ -83,34 +108,130 @@ class OpenFileManager(private val activity: Activity) : IOpenFileManager {
             }
         } else {
 
-            val autoencoding = PreferenceHelper.getAutoEncoding(activity)
-            if (autoencoding) {
-                encoding = FileUtils.getDetectedEncoding(activity.contentResolver.openInputStream(uri)!!)
-                if (encoding.isEmpty()) {
-                    encoding = PreferenceHelper.getEncoding(activity)
-                }
-            } else {
-                encoding = PreferenceHelper.getEncoding(activity)
-            }
+            encoding = getEncoding(activity.contentResolver.openInputStream(uri)!!, Long.MAX_VALUE)
 
             val inputStream = activity.contentResolver.openInputStream(uri)
             if (inputStream != null) {
-                buffer = BufferedReader(InputStreamReader(inputStream, encoding))
+                totalBytes = activity.contentResolver.openFileDescriptor(uri, "r")?.use { it.statSize } ?: -1L
+                countingStream = CountingInputStream(inputStream)
+                buffer = BufferedReader(InputStreamReader(countingStream, encoding))
             }
         }
 
-        if (buffer != null) {
-            line = buffer.readLine()
+        if (buffer != null)
+            pages = readPages(buffer, countingStream, totalBytes, asRoot)
+        else if (asRoot)
+            RootFW.disconnect()
+    }
+
+    /**
+     * Reads the lines of the file and cuts them in pages like [shared.turboeditor.home.texteditor.PageSystem]
+     * does: a page ends at the first new line after the page size, that new line separates it
+     * from the next page.
+     */
+    private fun readPages(buffer: BufferedReader, countingStream: CountingInputStream?, totalBytes: Long,
+                          asRoot: Boolean): Flow<LoadedPage> = flow {
+        val splitText = PreferenceHelper.getSplitText(activity)
+        try {
+            var pageChars = MappedPageScanner.FIRST_PAGE_CHARS
+            var page = StringBuilder()
+            var emittedPages = 0
+            var endsWithSeparator = false
+            var line = buffer.readLine()
             while (line != null) {
-                stringBuilder.append(line)
-                stringBuilder.append("\n")
+                page.append(line)
+                if (splitText && page.length >= pageChars) {
+                    emit(LoadedPage(page.toString(), getProgress(countingStream?.byteCount ?: -1L, totalBytes)))
+                    emittedPages++
+                    endsWithSeparator = true
+                    page = StringBuilder()
+                    pageChars = MappedPageScanner.CHARS_FOR_PAGE
+                } else {
+                    page.append("\n")
+                    endsWithSeparator = false
+                }
                 line = buffer.readLine()
             }
+            if (page.isNotEmpty() || endsWithSeparator || emittedPages == 0)
+                emit(LoadedPage(page.toString(), 100))
+        } finally {
             buffer.close()
-            fileText = stringBuilder.toString()
+            if (asRoot)
+                RootFW.disconnect()
         }
+    }.flowOn(Dispatchers.IO)
 
-        if (isRootRequired)
-            RootFW.disconnect()
+    /**
+     * Files bigger than [MAPPED_FILE_MIN_SIZE] are not read in memory: the pages are found in
+     * one pass over the bytes and decoded from the memory mapped file only when they are shown.
+     * Returns false if the file has to be read as usual.
+     */
+    @Throws(IOException::class)
+    private fun openMapped(path: String): Boolean {
+        val file = File(path)
+        val fileLength = file.length()
+        val lastModified = file.lastModified()
+        if (fileLength < MAPPED_FILE_MIN_SIZE)
+            return false
+
+        // the file was opened before and did not change
+        val index = pageIndexCache.load(file)
+        val fileEncoding = index?.encoding ?: getEncoding(FileInputStream(file), ENCODING_DETECTION_BYTES)
+        if (!MappedPageScanner.isSupported(fileEncoding))
+            return false
+
+        val inputStream = FileInputStream(file)
+        try {
+            if (index != null) {
+                mappedText = MappedText(inputStream, inputStream.channel, index.pageTable)
+                encoding = fileEncoding
+                return true
+            }
+
+            val scanner = MappedPageScanner(inputStream.channel, fileEncoding)
+            val scannedPages = scanner.pageTable
+            scannedPages.setFile(file.path, fileLength, lastModified)
+            // the pages are added to the text on the main thread while the scanner goes on
+            val pageTable = PageTable(scannedPages.charsetName, scannedPages.newLineBytes)
+            pageTable.setFile(file.path, fileLength, lastModified)
+            pageTable.bomLength = scannedPages.bomLength
+            mappedText = MappedText(inputStream, inputStream.channel, pageTable)
+            pages = flow {
+                while (scanner.scanNextPage()) {
+                    val page = scannedPages.size() - 1
+                    emit(LoadedPage(null, getProgress(scanner.scannedBytes, scanner.totalBytes),
+                            scannedPages.getByteStart(page), scannedPages.getByteEnd(page),
+                            scannedPages.getCharLength(page), scannedPages.getNewLines(page),
+                            scannedPages.hasCarriageReturns()))
+                }
+                pageIndexCache.save(fileEncoding, scannedPages, file)
+            }.flowOn(Dispatchers.IO)
+        } catch (e: IOException) {
+            inputStream.close()
+            throw e
+        }
+
+        encoding = fileEncoding
+        return true
+    }
+
+    private fun getEncoding(inputStream: InputStream, maxBytes: Long): String {
+        var fileEncoding = PreferenceHelper.getEncoding(activity)
+        if (PreferenceHelper.getAutoEncoding(activity)) {
+            val detectedEncoding = FileUtils.getDetectedEncoding(inputStream, maxBytes)
+            if (detectedEncoding.isNotEmpty())
+                fileEncoding = detectedEncoding
+        } else {
+            inputStream.close()
+        }
+        return fileEncoding
+    }
+
+    private fun getProgress(readBytes: Long, totalBytes: Long): Int =
+            if (readBytes < 0 || totalBytes <= 0) -1 else Math.min(99L, readBytes * 100 / totalBytes).toInt()
+
+    companion object {
+        private const val MAPPED_FILE_MIN_SIZE = 8L * 1024 * 1024
+        private const val ENCODING_DETECTION_BYTES = 1024L * 1024
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package shared.turboeditor.files
+
+import shared.turboeditor.home.texteditor.PageTable
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Keeps the encoding and the [PageTable] of the big files that were opened, so opening one of
+ * them again does not read it. An index is used only while the file has the size and the
+ * modification time it had when the index was written.
+ */
+class PageIndexCache(private val directory: File) {
+
+    fun load(file: File): Entry? {
+        val indexFile = getIndexFile(file)
+        if (!indexFile.exists())
+            return null
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(indexFile))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                    return null
+                val encoding = input.readUTF()
+                val pageTable = PageTable.read(input)
+                if (!pageTable.describes(file.path, file.length(), file.lastModified()))
+                    return null
+                // the least recently used indexes are deleted first
+                indexFile.setLastModified(System.currentTimeMillis())
+                return Entry(encoding, pageTable)
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            indexFile.delete()
+            return null
+        }
+    }
+
+    /**
+     * @param pageTable the complete table of the file, with the file it describes
+     */
+    fun save(encoding: String, pageTable: PageTable, file: File) {
+        if (!directory.isDirectory && !directory.mkdirs())
+            return
+        val indexFile = getIndexFile(file)
+        val newFile = File(directory, indexFile.name + ".tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(newFile))).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                output.writeUTF(encoding)
+                pageTable.write(output)
+            }
+            if (!newFile.renameTo(indexFile))
+                newFile.delete()
+        } catch (e: IOException) {
+            e.printStackTrace()
+            newFile.delete()
+        }
+        deleteOldIndexes()
+    }
+
+    private fun deleteOldIndexes() {
+        val indexes = directory.listFiles { _, name -> name.endsWith(INDEX_EXTENSION) } ?: return
+        if (indexes.size <= MAX_INDEXES)
+            return
+        indexes.sortByDescending { it.lastModified() }
+        for (i in MAX_INDEXES until indexes.size)
+            indexes[i].delete()
+    }
+
+    private fun getIndexFile(file: File): File {
+        val digest = MessageDigest.getInstance("SHA-1").digest(file.path.toByteArray(Charsets.UTF_8))
+        val name = digest.joinToString("") { String.format("%02x", it) }
+        return File(directory, name + INDEX_EXTENSION)
+    }
+
+    class Entry(val encoding: String, val pageTable: PageTable)
+
+    companion object {
+        const val DIRECTORY = "page_index"
+
+        private const val MAGIC = 0x54455058
+        private const val VERSION = 2
+        private const val INDEX_EXTENSION = ".idx"
+        private const val MAX_INDEXES = 16
+    }
+}
@@ -1,11 +1,36 @@
 package shared.turboeditor.files
 
+import kotlinx.coroutines.flow.Flow
+import shared.turboeditor.home.texteditor.MappedText
+import shared.turboeditor.home.texteditor.PageTable
+
 sealed class Result
 data class Success
 (
         val fileText: String? = null,
         val fileName: String? = null,
         val fileExtension: String? = null,
-        val encoding: String? = null
+        val encoding: String? = null,
+        val mappedText: MappedText? = null,
+        val pages: Flow<LoadedPage>? = null,
+        // where the pages of a saved document are in the file
+        val pageTable: PageTable? = null
 ) : Result()
-object Failure : Result()
\ No newline at end of file
+object Failure : Result()
+
+/**
+ * A page of a file that is being opened. The text of a mapped file is not read, only where
+ * the page is in the file.
+ *
+ * @param progress how much of the file has been read, from 0 to 100, -1 if unknown
+ */
+class LoadedPage(
+        val text: String?,
+        val progress: Int,
+        val byteStart: Long = 0,
+        val byteEnd: Long = 0,
+        val charLength: Int = 0,
+        val newLines: Int = 0,
+        // a line ending of the page had a carriage return before the new line
+        val carriageReturns: Boolean = false
+)
\ No newline at end of file
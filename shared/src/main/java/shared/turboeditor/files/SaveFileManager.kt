@@ -5,39 +5,56 @@ import android.net.Uri
 import android.text.TextUtils
 import com.spazedog.lib.rootfw4.RootFW
 import com.spazedog.lib.rootfw4.Shell
-import org.apache.commons.io.FileUtils
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import shared.turboeditor.home.texteditor.DocumentSnapshot
+import shared.turboeditor.home.texteditor.PageTable
 import shared.turboeditor.util.Device
 import shared.turboeditor.util.GreatUri
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 import java.nio.charset.Charset
 
 interface ISaveFileManager {
 
-    suspend fun saveFile(uri: GreatUri, newContent: String, encoding: String): Result
+    /**
+     * The document is encoded and written a chunk at a time. When the pages of a local file are
+     * known only the changed ones are written, the result then has where the pages are now.
+     */
+    suspend fun saveFile(uri: GreatUri, document: DocumentSnapshot, encoding: String): Result
 }
 
 class SaveFileManager(private val activity: Activity) : ISaveFileManager {
 
-    override suspend fun saveFile(uri: GreatUri, newContent: String, encoding: String): Result {
+    private val writer = TextWriter()
+
+    private val pageIndexCache by lazy { PageIndexCache(File(activity.cacheDir, PageIndexCache.DIRECTORY)) }
+
+    override suspend fun saveFile(uri: GreatUri, document: DocumentSnapshot, encoding: String): Result =
+            withContext(Dispatchers.IO) { save(uri, document, encoding) }
+
+    @Synchronized
+    private fun save(uri: GreatUri, document: DocumentSnapshot, encoding: String): Result {
         var isRootNeeded = false
         var resultRoot: Shell.Result? = null
+        var pageTable: PageTable? = null
 
         try {
             val filePath = uri.filePath
             // if the uri has no path
             if (TextUtils.isEmpty(filePath)) {
-                writeUri(uri.uri!!, newContent, encoding)
+                writeUri(uri.uri!!, document, encoding)
             } else {
                 isRootNeeded = !uri.isWritable
                 if (!isRootNeeded) {
-                    if (Device.hasKitKatApi())
-                        writeUri(uri.uri!!, newContent, encoding)
-                    else {
-                        FileUtils.write(java.io.File(filePath),
-                                newContent,
-                                encoding)
-                    }
+                    pageTable = writeFile(uri, File(filePath), document, encoding)
                 } else {
 
                     if (RootFW.connect()!!) {
@@ -45,7 +62,7 @@ class SaveFileManager(private val activity: Activity) : ISaveFileManager {
                         systemPart.mount(arrayOf("rw"))
 
                         val file = RootFW.getFile(uri.filePath)
-                        resultRoot = file.writeResult(newContent)
+                        resultRoot = file.writeResult(document.toString())
 
                         RootFW.disconnect()
                     }
@@ -63,19 +80,196 @@ class SaveFileManager(private val activity: Activity) : ISaveFileManager {
                 } else
                     Failure
             } else
-                Success()
+                Success(pageTable = pageTable)
         } catch (e: Exception) {
             e.printStackTrace()
             return Failure
         }
     }
 
+    /**
+     * Writes a local file, returns where the pages are in it.
+     */
+    @Throws(IOException::class)
+    private fun writeFile(uri: GreatUri, file: File, document: DocumentSnapshot, encoding: String): PageTable {
+        val savedPages = document.savedPages
+        val pageTable = if (savedPages != null && canWriteChangedPages(savedPages, file, encoding)) {
+            writeChangedPages(file, document, encoding, savedPages)
+        } else {
+            val pageTable = PageTable(Charset.forName(encoding).name(), TextWriter.getNewLineBytes(encoding))
+            when {
+                document.isMapped -> replaceFile(file, 0) { writePages(it, document, encoding, 0, 0, pageTable) }
+                Device.hasKitKatApi() -> writeUri(uri.uri!!, document, encoding, pageTable)
+                else -> FileOutputStream(file).use { writePages(it.channel, document, encoding, 0, 0, pageTable) }
+            }
+            pageTable
+        }
+        pageTable.setFile(file.path, file.length(), file.lastModified())
+        // the file is opened mapped again, its old index does not describe it anymore
+        if (document.isMapped)
+            pageIndexCache.save(encoding, pageTable, file)
+        return pageTable
+    }
+
+    /**
+     * The file is still the one the pages were found in and the text of a page encodes to the
+     * bytes it was read from.
+     */
+    private fun canWriteChangedPages(savedPages: PageTable, file: File, encoding: String): Boolean =
+            savedPages.describes(file.path, file.length(), file.lastModified())
+                    && !savedPages.hasCarriageReturns()
+                    && Charset.forName(savedPages.charsetName) == Charset.forName(encoding)
+                    && !TextWriter.hasByteOrderMark(encoding)
+
+    /**
+     * Pages that encode to as many bytes as before are written over their old bytes, otherwise
+     * the file is written again from the first changed page: the bytes before it are kept.
+     */
+    @Throws(IOException::class)
+    private fun writeChangedPages(file: File, document: DocumentSnapshot, encoding: String,
+                                  savedPages: PageTable): PageTable {
+        val firstDirtyPage = document.firstDirtyPage
+        if (firstDirtyPage < 0)
+            return savedPages
+
+        val pageTable = PageTable(savedPages.charsetName, savedPages.newLineBytes)
+        pageTable.bomLength = savedPages.bomLength
+        for (page in 0 until firstDirtyPage)
+            pageTable.addPage(savedPages.getByteStart(page), savedPages.getByteEnd(page),
+                    document.getPageEnd(page) - document.getPageStart(page), document.getNewLines(page))
+
+        val changedPages = encodeChangedPages(document, encoding, savedPages, firstDirtyPage)
+        if (changedPages != null) {
+            RandomAccessFile(file, "rw").channel.use { channel ->
+                for (page in firstDirtyPage until document.pageCount) {
+                    val bytes = changedPages[page - firstDirtyPage]
+                    var position = savedPages.getByteStart(page)
+                    if (bytes != null) {
+                        val buffer = ByteBuffer.wrap(bytes)
+                        while (buffer.hasRemaining())
+                            position += channel.write(buffer, position)
+                    }
+                    pageTable.addPage(savedPages.getByteStart(page), savedPages.getByteEnd(page),
+                            document.getPageEnd(page) - document.getPageStart(page), document.getNewLines(page))
+                }
+            }
+            return pageTable
+        }
+
+        val start = savedPages.getByteStart(firstDirtyPage)
+        if (document.isMapped) {
+            replaceFile(file, start) { writePages(it, document, encoding, firstDirtyPage, start, pageTable) }
+        } else {
+            RandomAccessFile(file, "rw").channel.use { channel ->
+                channel.position(start)
+                writePages(channel, document, encoding, firstDirtyPage, start, pageTable)
+                channel.truncate(channel.position())
+            }
+        }
+        return pageTable
+    }
+
+    /**
+     * The bytes of every changed page from the first one, null for the ones that did not
+     * change. Returns null if a page does not fit in its old bytes anymore.
+     */
     @Throws(IOException::class)
-    private fun writeUri(uri: Uri, newContent: String, encoding: String) {
+    private fun encodeChangedPages(document: DocumentSnapshot, encoding: String, savedPages: PageTable,
+                                   firstDirtyPage: Int): Array<ByteArray?>? {
+        val changedPages = arrayOfNulls<ByteArray>(document.pageCount - firstDirtyPage)
+        val stream = ByteArrayOutputStream()
+        for (page in firstDirtyPage until document.pageCount) {
+            if (!document.isDirty(page))
+                continue
+            stream.reset()
+            writer.begin(Channels.newChannel(stream), encoding)
+            writer.write(document, document.getPageStart(page), document.getPageEnd(page))
+            writer.finish()
+            if (stream.size().toLong() != savedPages.getByteEnd(page) - savedPages.getByteStart(page))
+                return null
+            changedPages[page - firstDirtyPage] = stream.toByteArray()
+        }
+        return changedPages
+    }
+
+    /**
+     * Writes the pages from the given one, the separator before it is already in the file.
+     *
+     * @param offset where the first page starts in the file
+     */
+    @Throws(IOException::class)
+    private fun writePages(channel: FileChannel, document: DocumentSnapshot, encoding: String,
+                           fromPage: Int, offset: Long, pageTable: PageTable) {
+        writer.begin(channel, encoding)
+        // the BOM of a mapped file was skipped when it was read, the file starts with it again
+        if (offset == 0L && document.hasByteOrderMark() && canWriteByteOrderMark(encoding)) {
+            writer.write("\uFEFF")
+            pageTable.bomLength = writer.position.toInt()
+        }
+        for (page in fromPage until document.pageCount) {
+            if (page > fromPage)
+                writer.write("\n")
+            val byteStart = offset + writer.position
+            writer.write(document, document.getPageStart(page), document.getPageEnd(page))
+            pageTable.addPage(byteStart, offset + writer.position,
+                    document.getPageEnd(page) - document.getPageStart(page), document.getNewLines(page))
+        }
+        writer.finish()
+    }
+
+    /**
+     * The BOM is written as a char only by an encoding that does not write its own.
+     */
+    private fun canWriteByteOrderMark(encoding: String): Boolean =
+            Charset.forName(encoding).name().startsWith("UTF") && !TextWriter.hasByteOrderMark(encoding)
+
+    @Throws(IOException::class)
+    private fun writeUri(uri: Uri, document: DocumentSnapshot, encoding: String, pageTable: PageTable? = null) {
         val pfd = activity.contentResolver.openFileDescriptor(uri, "w")
-        val fileOutputStream = FileOutputStream(pfd!!.fileDescriptor)
-        fileOutputStream.write(newContent.toByteArray(Charset.forName(encoding)))
-        fileOutputStream.close()
+        FileOutputStream(pfd!!.fileDescriptor).use {
+            if (pageTable != null) {
+                writePages(it.channel, document, encoding, 0, 0, pageTable)
+            } else {
+                writer.begin(it.channel, encoding)
+                writer.write(document)
+                writer.finish()
+            }
+        }
         pfd.close()
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a new file and renames it over the old one, a mapped document keeps reading the
+     * content of the old file.
+     *
+     * @param keptBytes how many bytes at the start of the old file are copied to the new one
+     */
+    @Throws(IOException::class)
+    private fun replaceFile(file: File, keptBytes: Long, write: (FileChannel) -> Unit) {
+        val newFile = File(file.parentFile, ".${file.name}.tmp")
+        try {
+            FileOutputStream(newFile).use { output ->
+                val channel = output.channel
+                if (keptBytes > 0) {
+                    FileInputStream(file).use { input ->
+                        var position = 0L
+                        while (position < keptBytes) {
+                            val count = input.channel.transferTo(position, keptBytes - position, channel)
+                            if (count <= 0)
+                                throw IOException("Cannot copy $file")
+                            position += count
+                        }
+                    }
+                }
+                write(channel)
+            }
+        } catch (e: IOException) {
+            newFile.delete()
+            throw e
+        }
+        if (!newFile.renameTo(file)) {
+            newFile.delete()
+            throw IOException("Cannot replace $file")
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package shared.turboeditor.files
+
+import android.text.TextUtils
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.channels.WritableByteChannel
+import java.nio.charset.Charset
+import java.nio.charset.CharsetEncoder
+import java.nio.charset.CodingErrorAction
+
+/**
+ * Encodes text into a channel through buffers of a fixed size, the memory used does not depend
+ * on the size of the text. The written bytes are counted, so it is known where every part of
+ * the text ended up in the file.
+ */
+class TextWriter {
+
+    private var encoder: CharsetEncoder? = null
+
+    private val chars = CharBuffer.allocate(CHAR_BUFFER_SIZE)
+
+    private val bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE)
+
+    private var channel: WritableByteChannel? = null
+
+    private var written = 0L
+
+    /**
+     * How many bytes the text written since [begin] takes, the ones still in the buffer too.
+     */
+    val position: Long
+        get() = written + bytes.position()
+
+    fun begin(channel: WritableByteChannel, encoding: String) {
+        this.channel = channel
+        getEncoder(encoding)
+        chars.clear()
+        bytes.clear()
+        written = 0
+    }
+
+    @Throws(IOException::class)
+    fun write(text: CharSequence, start: Int = 0, end: Int = text.length) {
+        var index = start
+        while (index < end) {
+            val count = Math.min(chars.remaining(), end - index)
+            TextUtils.getChars(text, index, index + count, chars.array(), chars.position())
+            chars.position(chars.position() + count)
+            index += count
+            encode(false)
+        }
+    }
+
+    @Throws(IOException::class)
+    fun finish() {
+        encode(true)
+        val encoder = encoder!!
+        while (encoder.flush(bytes).isOverflow)
+            writeBytes()
+        writeBytes()
+        channel = null
+    }
+
+    @Throws(IOException::class)
+    private fun encode(endOfInput: Boolean) {
+        val encoder = encoder!!
+        chars.flip()
+        while (true) {
+            val result = encoder.encode(chars, bytes, endOfInput)
+            if (result.isOverflow)
+                writeBytes()
+            else if (result.isUnderflow)
+                break
+            else
+                result.throwException()
+        }
+        // a surrogate cut in half stays in the buffer for the next chunk
+        chars.compact()
+    }
+
+    private fun getEncoder(encoding: String) {
+        val charset = Charset.forName(encoding)
+        var encoder = this.encoder
+        if (encoder == null || encoder.charset() != charset) {
+            // like String.toByteArray()
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            this.encoder = encoder
+        }
+        // a new text starts: an encoder with a BOM writes it again
+        encoder!!.reset()
+    }
+
+    @Throws(IOException::class)
+    private fun writeBytes() {
+        val channel = channel!!
+        bytes.flip()
+        while (bytes.hasRemaining())
+            written += channel.write(bytes)
+        bytes.clear()
+    }
+
+    companion object {
+        private const val CHAR_BUFFER_SIZE = 16 * 1024
+        private const val BYTE_BUFFER_SIZE = 64 * 1024
+
+        /**
+         * Text in such an encoding starts with a byte order mark, it cannot be encoded on its
+         * own and put in the middle of a file.
+         */
+        fun hasByteOrderMark(encoding: String): Boolean {
+            val charset = Charset.forName(encoding)
+            return "\n\n".toByteArray(charset).size != 2 * "\n".toByteArray(charset).size
+        }
+
+        fun getNewLineBytes(encoding: String): Int =
+                "\n\n".toByteArray(Charset.forName(encoding)).size / 2
+    }
+}
@@ -3,31 +3,38 @@ package shared.turboeditor.home;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.text.Editable;
 import android.text.InputType;
+import android.text.Layout;
 import android.text.Selection;
-import android.text.Spannable;
 import android.text.TextPaint;
 import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.text.method.KeyListener;
-import android.text.style.ForegroundColorSpan;
 import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
+import android.view.ViewTreeObserver;
+import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.InputMethodManager;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.widget.AppCompatEditText;
 
 import java.util.LinkedList;
-import java.util.List;
 import java.util.regex.Matcher;
 
 import shared.turboeditor.R;
+import shared.turboeditor.home.highlight.HighlightCache;
+import shared.turboeditor.home.highlight.TokenBuffer;
+import shared.turboeditor.home.texteditor.DocumentSnapshot;
 import shared.turboeditor.home.texteditor.EditTextPadding;
+import shared.turboeditor.home.texteditor.DocumentPositions;
+import shared.turboeditor.home.texteditor.LineMap;
 import shared.turboeditor.home.texteditor.LineUtils;
 import shared.turboeditor.preferences.PreferenceHelper;
 
@@ -40,6 +47,8 @@ public class Editor extends AppCompatEditText {
     private static final int ID_UNDO = R.id.im_undo;
     private static final int ID_REDO = R.id.im_redo;
     private static final int CHARS_TO_COLOR = 2500;
+    private static final int NO_PAGE = -1;
+    private static final long HIGHLIGHT_CACHE_BYTES = 1024 * 1024;
 
     //region VARIABLES
     private final TextPaint mPaintNumbers = new TextPaint();
@@ -62,8 +71,22 @@ public class Editor extends AppCompatEditText {
     private int numbersWidth;
     private int lineHeight;
 
-    private int lineCount, realLine, startingLine;
-    private LineUtils lineUtils;
+    private int lineCount, startingLine;
+    // the lines of the text, the rows of the layout are found from them
+    private final LineMap lineMap = new LineMap();
+    private final DocumentPositions.Rows rows = new DocumentPositions.Rows() {
+        @Override
+        public int getLineForOffset(int offset) {
+            Layout layout = getLayout();
+            return layout != null ? layout.getLineForOffset(offset) : 0;
+        }
+
+        @Override
+        public int getLineStart(int row) {
+            Layout layout = getLayout();
+            return layout != null ? layout.getLineStart(row) : 0;
+        }
+    };
     /**
      * Is undo/redo being performed? This member
      * signals if an undo/redo operation is
@@ -79,10 +102,33 @@ public class Editor extends AppCompatEditText {
     private int firstVisibleIndex, firstColoredIndex, lastVisibleIndex;
     private int deviceHeight;
     private int editorHeight;
-    private boolean[] isGoodLineArray;
-    private int[] realLines;
-    private boolean wrapContent;
-    private CharSequence textToHighlight;
+    // read from the preferences when they change, not on every frame
+    private boolean showLineNumbers, wrapContent;
+    // the digits of the line number drawn, from the end
+    private final char[] lineNumberChars = new char[11];
+    private final Rect clipRect = new Rect();
+    private HighlightWorker highlightWorker;
+    // the colors of the pages seen last, the page shown and the hash of the text it was shown with
+    private final HighlightCache highlightCache = new HighlightCache(HIGHLIGHT_CACHE_BYTES);
+    private final TokenBuffer cachedHighlights = new TokenBuffer();
+    private int page = NO_PAGE;
+    private int pageTextHash;
+    private boolean pageEdited, cacheNextHighlights;
+    // the colors are drawn over the text, which is transparent, they move with the edits until
+    // the next ones arrive
+    private final TokenBuffer shownHighlights = new TokenBuffer();
+    private final HighlightPainter highlightPainter = new HighlightPainter();
+    private boolean drawHighlights;
+    private int plainTextColor;
+    // the part of the editor on screen, and the part drawn around it
+    private final Rect visibleRect = new Rect();
+    private int drawnTop, drawnBottom;
+    private final ViewTreeObserver.OnScrollChangedListener scrollListener = () -> {
+        // the parents scroll the editor, what they show was not drawn
+        if ((drawHighlights || showLineNumbers) && getLocalVisibleRect(visibleRect)
+                && (visibleRect.top < drawnTop || visibleRect.bottom > drawnBottom))
+            invalidate();
+    };
     //endregion
 
     //region CONSTRUCTOR
@@ -95,7 +141,8 @@ public class Editor extends AppCompatEditText {
 
         mEditHistory = new EditHistory();
         mChangeListener = new EditTextChangeListener();
-        lineUtils = new LineUtils();
+        if (highlightWorker == null)
+            highlightWorker = new HighlightWorker(new AndroidHighlightColorProvider());
 
         deviceHeight = getResources().getDisplayMetrics().heightPixels;
 
@@ -111,6 +158,7 @@ public class Editor extends AppCompatEditText {
         } else {
             setTextColor(getResources().getColor(R.color.textColor));
         }
+        readSettings();
         // update the padding of the editor
         updatePadding();
 
@@ -170,6 +218,14 @@ public class Editor extends AppCompatEditText {
         }
     }
 
+    /**
+     * Takes the preferences the editor draws with, after they changed.
+     */
+    public void readSettings() {
+        showLineNumbers = PreferenceHelper.getLineNumbers(getContext());
+        wrapContent = PreferenceHelper.getWrapContent(getContext());
+    }
+
     public void updatePadding() {
         Context context = getContext();
         if (PreferenceHelper.getLineNumbers(context)) {
@@ -190,6 +246,35 @@ public class Editor extends AppCompatEditText {
     }
 
     //region OVERRIDES
+    @Override
+    public void setTextColor(int color) {
+        plainTextColor = color;
+        super.setTextColor(drawHighlights ? Color.TRANSPARENT : color);
+    }
+
+    /**
+     * Draws the text in the colors of the highlights, or in the plain color with no highlights.
+     */
+    private void setDrawHighlights(boolean drawHighlights) {
+        if (this.drawHighlights == drawHighlights)
+            return;
+        this.drawHighlights = drawHighlights;
+        shownHighlights.clear();
+        setTextColor(plainTextColor);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(scrollListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollListener);
+        super.onDetachedFromWindow();
+    }
+
     @Override
     public void setTextSize(float size) {
         super.setTextSize(size);
@@ -204,35 +289,93 @@ public class Editor extends AppCompatEditText {
     @Override
     public void onDraw(@NonNull final Canvas canvas) {
 
-        if (lineCount != getLineCount() || startingLine != MainActivity.Companion.getPageSystem().getStartingLine()) {
-            startingLine = MainActivity.Companion.getPageSystem().getStartingLine();
-            lineCount = getLineCount();
-            lineUtils.updateHasNewLineArray(MainActivity.Companion.getPageSystem()
-                    .getStartingLine(), lineCount, getLayout(), getText().toString());
+        startingLine = MainActivity.Companion.getPageSystem().getStartingLine();
+        lineCount = getLineCount();
+        updateLineMap();
+
+        // the lines on screen and a screen above and below them are drawn, the parents scroll
+        // the editor and the canvas of a hardware layer is not clipped to what they show
+        if (!getLocalVisibleRect(visibleRect))
+            visibleRect.set(0, 0, getWidth(), getHeight());
+        drawnTop = visibleRect.top - visibleRect.height();
+        drawnBottom = visibleRect.bottom + visibleRect.height();
+
+        if (showLineNumbers)
+            drawLineNumbers(canvas);
 
-            isGoodLineArray = lineUtils.getGoodLines();
-            realLines = lineUtils.getRealLines();
+        super.onDraw(canvas);
+        if (drawHighlights)
+            drawText(canvas);
+    }
 
+    /**
+     * Draws the numbers of the lines in the drawn part of the canvas, on the first row of every
+     * line when it wraps.
+     */
+    private void drawLineNumbers(Canvas canvas) {
+        Layout layout = getLayout();
+        if (layout == null || lineHeight <= 0)
+            return;
+        int top = drawnTop;
+        int bottom = drawnBottom;
+        if (canvas.getClipBounds(clipRect)) {
+            top = Math.max(top, clipRect.top);
+            bottom = Math.min(bottom, clipRect.bottom);
+        }
+        // the number of a row is drawn on its baseline, at paddingTop + lineHeight * (row + 1)
+        int first = Math.max(0, (top - paddingTop) / lineHeight - 1);
+        int last = Math.min(layout.getLineCount() - 1, (bottom - paddingTop) / lineHeight + 1);
+        for (int row = first; row <= last; row++) {
+            int rowStart = layout.getLineStart(row);
+            int line = lineMap.getLineOfOffset(rowStart);
+            if (wrapContent && rowStart != lineMap.getLineStart(line))
+                continue;
+            int start = formatLineNumber(startingLine + line + 1);
+            canvas.drawText(lineNumberChars, start, lineNumberChars.length - start,
+                    numbersWidth, // they are all right aligned
+                    paddingTop + lineHeight * (row + 1),
+                    mPaintNumbers);
         }
+    }
 
-        if (PreferenceHelper.getLineNumbers(getContext())) {
-            wrapContent = PreferenceHelper.getWrapContent(getContext());
+    /**
+     * Writes the digits of the number at the end of lineNumberChars, returns where they start.
+     */
+    private int formatLineNumber(int number) {
+        int start = lineNumberChars.length;
+        do {
+            lineNumberChars[--start] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        return start;
+    }
 
-            for (int i = 0; i < lineCount; i++) {
-                // if last line we count it anyway
-                if (!wrapContent
-                        || isGoodLineArray[i]) {
-                    realLine = realLines[i];
+    /**
+     * Draws the lines in the drawn part of the editor, the text of the layout is transparent.
+     */
+    private void drawText(Canvas canvas) {
+        Layout layout = getLayout();
+        if (layout == null)
+            return;
 
-                    canvas.drawText(String.valueOf(realLine),
-                            numbersWidth, // they are all center aligned
-                            paddingTop + lineHeight * (i + 1),
-                            mPaintNumbers);
-                }
-            }
+        int left = getCompoundPaddingLeft();
+        int top = getExtendedPaddingTop();
+        canvas.save();
+        canvas.clipRect(left + getScrollX(), top + getScrollY(),
+                getWidth() - getCompoundPaddingRight() + getScrollX(),
+                getHeight() - getExtendedPaddingBottom() + getScrollY());
+        canvas.translate(left, top);
+        highlightPainter.draw(canvas, layout, getPaint(), plainTextColor, shownHighlights,
+                drawnTop - top, drawnBottom - top);
+        // the keyboard underlines what it composes in the color of the text
+        Editable text = getEditableText();
+        int composingStart = BaseInputConnection.getComposingSpanStart(text);
+        int composingEnd = BaseInputConnection.getComposingSpanEnd(text);
+        if (composingStart >= 0 && composingStart < composingEnd) {
+            highlightPainter.drawUnderline(canvas, layout, plainTextColor,
+                    getResources().getDisplayMetrics().density, composingStart, composingEnd);
         }
-
-        super.onDraw(canvas);
+        canvas.restore();
     }
 
 
@@ -413,9 +556,11 @@ public class Editor extends AppCompatEditText {
 
     public void resetVariables() {
         mEditHistory.clear();
+        highlightCache.clear();
+        page = NO_PAGE;
+        highlightWorker.setDocument(null, 0);
         enabledChangeListener = false;
         lineCount = 0;
-        realLine = 0;
         startingLine = 0;
         mIsUndoOrRedo = false;
         mShowUndo = false;
@@ -434,65 +579,71 @@ public class Editor extends AppCompatEditText {
     }
 
     public void replaceTextKeepCursor(String textToUpdate) {
+        replaceTextKeepCursor(textToUpdate, NO_PAGE);
+    }
 
-        int cursorPos;
-        int cursorPosEnd;
-
-        if (textToUpdate != null) {
-            cursorPos = 0;
-            cursorPosEnd = 0;
-        } else {
-            cursorPos = getSelectionStart();
-            cursorPosEnd = getSelectionEnd();
-        }
-
-        disableTextChangedListener();
-
-        if (PreferenceHelper.getSyntaxHighlight(getContext())) {
-            setText(highlight(textToUpdate == null ? getEditableText() : Editable.Factory
-                    .getInstance().newEditable(textToUpdate), textToUpdate != null));
-        } else {
-            setText(textToUpdate == null ? getEditableText() : textToUpdate);
-        }
-
-        enableTextChangedListener();
-
-        int newCursorPos;
+    /**
+     * The text shown is now the given page of the document, its index changed.
+     */
+    public void setPage(int page) {
+        this.page = page;
+    }
 
-        boolean cursorOnScreen = cursorPos >= firstVisibleIndex && cursorPos <= lastVisibleIndex;
+    /**
+     * Shows the text of a page, it is colored right away if its colors are still in the cache.
+     */
+    public void replaceTextKeepCursor(String textToUpdate, int page) {
 
-        if (cursorOnScreen) { // if the cursor is on screen
-            newCursorPos = cursorPos; // we dont change its position
-        } else {
-            newCursorPos = firstVisibleIndex; // else we set it to the first visible pos
+        if (textToUpdate != null) {
+            disableTextChangedListener();
+            setText(textToUpdate);
+            enableTextChangedListener();
+            lineMap.setText(textToUpdate);
+            highlightWorker.setText(textToUpdate);
+            shownHighlights.clear();
+            setSelection(0);
+
+            this.page = page;
+            pageTextHash = textToUpdate.hashCode();
+            pageEdited = false;
         }
 
-        if (newCursorPos > -1 && newCursorPos <= length()) {
-            if (cursorPosEnd != cursorPos)
-                setSelection(cursorPos, cursorPosEnd);
-            else
-                setSelection(newCursorPos);
+        setDrawHighlights(PreferenceHelper.getSyntaxHighlight(getContext()));
+        if (drawHighlights) {
+            if (textToUpdate != null && page != NO_PAGE
+                    && highlightCache.get(page, highlightCacheKey(), cachedHighlights))
+                applyHighlights(cachedHighlights);
+            // the cached colors are checked again
+            highlight(textToUpdate != null);
         }
     }
-    //endregion
-
-    //region UNDO REDO
 
-    public void disableTextChangedListener() {
-        enabledChangeListener = false;
-        removeTextChangedListener(mChangeListener);
+    /**
+     * The pages shown are pages of this document, the lexer state they start in is found from
+     * the pages before them. The pages from firstChangedPage on changed since it was last set.
+     */
+    public void setDocument(DocumentSnapshot document, int firstChangedPage) {
+        highlightWorker.setDocument(document, firstChangedPage);
     }
 
-    public Editable highlight(Editable editable, boolean newText) {
-        editable.clearSpans();
+    private int highlightCacheKey() {
+        return 31 * pageTextHash + String.valueOf(MainActivity.Companion.getFileExtension()).hashCode();
+    }
 
+    /**
+     * Colors the visible text on the highlight thread, the colors are applied when they are ready
+     * if the text did not change in the meantime.
+     */
+    public void highlight(boolean newText) {
+        Editable editable = getEditableText();
         if (editable.length() == 0) {
-            return editable;
+            highlightWorker.cancel();
+            return;
         }
 
         editorHeight = getHeight();
 
-        if (!newText && editorHeight > 0) {
+        if (!newText && editorHeight > 0 && getLayout() != null) {
             firstVisibleIndex = getLayout().getLineStart(LineUtils.Companion.getFirstVisibleLine(MainActivity.verticalScroll, editorHeight, lineCount));
             lastVisibleIndex = getLayout().getLineEnd(LineUtils.Companion.getLastVisibleLine(MainActivity.verticalScroll, editorHeight, lineCount, deviceHeight) - 1);
         } else {
@@ -510,24 +661,40 @@ public class Editor extends AppCompatEditText {
         if (firstColoredIndex > lastVisibleIndex)
             firstColoredIndex = lastVisibleIndex;
 
-        textToHighlight = editable.subSequence(firstColoredIndex, lastVisibleIndex);
-
         if (TextUtils.isEmpty(MainActivity.Companion.getFileExtension()))
             MainActivity.Companion.setFileExtension("");
 
-        HighlightDriver highlightDriver = new HighlightDriver(new AndroidHighlightColorProvider(),
-                MainActivity.Companion.getFileExtension());
+        // the colors of the top of a page are the ones kept for it
+        cacheNextHighlights = newText && page != NO_PAGE;
+        highlightWorker.highlight(MainActivity.Companion.getFileExtension(), page,
+                firstColoredIndex, lastVisibleIndex, this::applyHighlights);
+    }
 
-        List<HighlightInfo> highlights = highlightDriver.highlightText(textToHighlight, firstColoredIndex);
-        for (HighlightInfo info : highlights) {
-            editable.setSpan(
-                    new ForegroundColorSpan(info.getColor()),
-                    info.getStart(),
-                    info.getEnd(),
-                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    private void applyHighlights(TokenBuffer highlights) {
+        if (!drawHighlights)
+            return;
+        shownHighlights.set(highlights);
+        invalidate();
+        if (cacheNextHighlights && highlights != cachedHighlights) {
+            cacheNextHighlights = false;
+            if (!pageEdited)
+                highlightCache.put(page, highlightCacheKey(), highlights);
         }
+    }
+
+    /**
+     * Stops the highlight thread, the editor can't be highlighted after.
+     */
+    public void closeHighlighting() {
+        highlightWorker.close();
+    }
+    //endregion
+
+    //region UNDO REDO
 
-        return editable;
+    public void disableTextChangedListener() {
+        enabledChangeListener = false;
+        removeTextChangedListener(mChangeListener);
     }
 
     public void enableTextChangedListener() {
@@ -537,8 +704,20 @@ public class Editor extends AppCompatEditText {
         }
     }
 
-    public LineUtils getLineUtils() {
-        return lineUtils;
+    /**
+     * The positions of the text shown and of the document it is a page of, as they are now.
+     */
+    public DocumentPositions getPositions() {
+        updateLineMap();
+        return new DocumentPositions(MainActivity.Companion.getPageSystem(), lineMap, rows);
+    }
+
+    private void updateLineMap() {
+        Editable text = getEditableText();
+        if (lineMap.length() != text.length()) {
+            // changed without being told
+            lineMap.setText(text);
+        }
     }
 
     /**
@@ -686,6 +865,11 @@ public class Editor extends AppCompatEditText {
         public void onTextChanged(CharSequence s,
                                   int start, int before,
                                   int count) {
+            highlightWorker.onTextChanged(start, before, s.subSequence(start, start + count));
+            lineMap.onTextChanged(s, start, before, count);
+            shownHighlights.onTextChanged(start, before, count);
+            pageEdited = true;
+
             if (mIsUndoOrRedo) {
                 return;
             }
@@ -1,105 +1,111 @@
 package shared.turboeditor.home
 
-import shared.turboeditor.home.texteditor.Patterns
-import shared.turboeditor.util.MimeTypes
-import java.util.regex.Pattern
+import shared.turboeditor.home.highlight.IncrementalHighlighter
+import shared.turboeditor.home.highlight.Language
+import shared.turboeditor.home.highlight.PageStates
+import shared.turboeditor.home.highlight.TokenBuffer
+import shared.turboeditor.home.texteditor.DocumentSnapshot
 
+/**
+ * Colors the text of a page. It remembers what it lexed, keep it for the page and tell it about
+ * every edit with [onTextChanged]. The lines longer than maxLineLength are left plain.
+ */
 class HighlightDriver(private val colorProvider: HighlightColorProvider,
-                      private val fileExtension: String) {
+                      val fileExtension: String,
+                      maxLineLength: Int = Language.DEFAULT_MAX_LINE_LENGTH) {
 
-    fun highlightText(textToHighlight: CharSequence, firstColoredIndex: Int): MutableList<HighlightInfo> {
-        val highlights = mutableListOf<HighlightInfo>()
-
-        if (fileExtension.contains(HtmlExtension)
-                || fileExtension.contains(XmlExtension)) {
-            highlights.addAll(color(Patterns.HTML_TAGS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.HTML_ATTRS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.GENERAL_STRINGS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.XML_COMMENTS, textToHighlight, firstColoredIndex))
-        } else if (fileExtension.contains(CssExtension)) {
-            highlights.addAll(color(Patterns.CSS_ATTRS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.CSS_ATTR_VALUE, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.SYMBOLS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.GENERAL_COMMENTS, textToHighlight, firstColoredIndex))
-        } else if (listOf<String>(*MimeTypes.MIME_CODE).contains(fileExtension)) {
-            highlights.addAll(
-                    when (fileExtension) {
-                        LuaExtension -> color(Patterns.LUA_KEYWORDS, textToHighlight, firstColoredIndex)
-                        PyExtension -> color(Patterns.PY_KEYWORDS, textToHighlight, firstColoredIndex)
-                        else -> color(Patterns.GENERAL_KEYWORDS, textToHighlight, firstColoredIndex)
-                    })
-            highlights.addAll(color(Patterns.NUMBERS_OR_SYMBOLS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.GENERAL_STRINGS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.GENERAL_COMMENTS, textToHighlight, firstColoredIndex))
-            if (fileExtension == PhpExtension)
-                highlights.addAll(color(Patterns.PHP_VARIABLES, textToHighlight, firstColoredIndex))
-        } else if (listOf<String>(*MimeTypes.MIME_SQL).contains(fileExtension)) {
-            highlights.addAll(color(Patterns.SYMBOLS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.GENERAL_STRINGS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.SQL_KEYWORDS, textToHighlight, firstColoredIndex))
-        } else {
-            if (!listOf(*MimeTypes.MIME_MARKDOWN).contains(fileExtension))
-                highlights.addAll(color(Patterns.GENERAL_KEYWORDS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.NUMBERS_OR_SYMBOLS, textToHighlight, firstColoredIndex))
-            highlights.addAll(color(Patterns.GENERAL_STRINGS, textToHighlight, firstColoredIndex))
-            if (fileExtension == "prop" || fileExtension.contains("conf") ||
-                    listOf(*MimeTypes.MIME_MARKDOWN).contains(fileExtension))
-                highlights.addAll(color(Patterns.GENERAL_COMMENTS_NO_SLASH, textToHighlight, firstColoredIndex))
-            else
-                highlights.addAll(color(Patterns.GENERAL_COMMENTS, textToHighlight, firstColoredIndex))
-
-            if (listOf(*MimeTypes.MIME_MARKDOWN).contains(fileExtension))
-                highlights.addAll(color(Patterns.LINK, textToHighlight, firstColoredIndex))
-        }
+    private val language = Language.forExtension(fileExtension)
+    private val highlighter = IncrementalHighlighter(language)
+    private val pageStates = PageStates(language)
 
-        return highlights
+    init {
+        highlighter.setMaxLineLength(maxLineLength)
+        pageStates.setMaxLineLength(maxLineLength)
     }
 
-    private fun color(pattern: Pattern, textToHighlight: CharSequence, firstColoredIndex: Int): List<HighlightInfo> {
-        var color = 0
-        if (pattern == Patterns.HTML_TAGS
-                || pattern == Patterns.GENERAL_KEYWORDS
-                || pattern == Patterns.SQL_KEYWORDS
-                || pattern == Patterns.PY_KEYWORDS
-                || pattern == Patterns.LUA_KEYWORDS) {
-            color = colorProvider.keywordColor
-        } else if (pattern == Patterns.HTML_ATTRS
-                || pattern == Patterns.CSS_ATTRS
-                || pattern == Patterns.LINK) {
-            color = colorProvider.attrColor
-        } else if (pattern == Patterns.CSS_ATTR_VALUE) {
-            color = colorProvider.attrValueColor
-        } else if (pattern == Patterns.XML_COMMENTS
-                || pattern == Patterns.GENERAL_COMMENTS
-                || pattern == Patterns.GENERAL_COMMENTS_NO_SLASH) {
-            color = colorProvider.commentColor
-        } else if (pattern == Patterns.GENERAL_STRINGS) {
-            color = colorProvider.stringColor
-        } else if (pattern == Patterns.NUMBERS || pattern == Patterns.SYMBOLS || pattern == Patterns.NUMBERS_OR_SYMBOLS) {
-            color = colorProvider.numberColor
-        } else if (pattern == Patterns.PHP_VARIABLES) {
-            color = colorProvider.variableColor
-        }
+    fun setText(text: CharSequence) {
+        highlighter.setText(text)
+    }
+
+    fun onTextChanged(start: Int, before: Int, inserted: CharSequence) {
+        highlighter.onTextChanged(start, before, inserted)
+    }
 
-        val m = pattern.matcher(textToHighlight)
-        val highlights = mutableListOf<HighlightInfo>()
+    /**
+     * The text is the given page of the document, it is colored from the state the pages before
+     * it end in. Returns false if they are not lexed yet, [lexNextPage] lexes them one by one.
+     */
+    fun setPage(page: Int): Boolean {
+        val state = if (page <= 0) 0 else pageStates.getState(page)
+        // until then the page is colored as if it started outside of everything
+        highlighter.setStartState(Math.max(state, 0))
+        return state >= 0
+    }
 
-        while (m.find()) {
-            highlights.add(HighlightInfo(color,
-                    firstColoredIndex + m.start(),
-                    firstColoredIndex + m.end()))
-        }
+    val startState: Int
+        get() = highlighter.startState
 
-        return highlights
+    fun lexNextPage(document: DocumentSnapshot) = pageStates.lexNextPage(document)
+
+    /**
+     * The pages from the given one on changed, the state they start in has to be found again.
+     */
+    fun invalidatePages(firstChangedPage: Int) {
+        pageStates.invalidateFrom(firstChangedPage)
     }
 
-    companion object {
-        private const val HtmlExtension = "htm"
-        private const val XmlExtension = "xml"
-        private const val CssExtension = "css"
-        private const val LuaExtension = "lue"
-        private const val PyExtension = "py"
-        private const val PhpExtension = "php"
+    /**
+     * The lines of the text that were left plain because they are too long.
+     */
+    val degradedLines: IntArray
+        get() = highlighter.degradedLines
+
+    /**
+     * Lexes the next lines of the text until the deadline, a time of [System.nanoTime]. Returns
+     * false when all of them are lexed.
+     */
+    fun lexAhead(text: CharSequence, deadline: Long) = highlighter.lexAhead(text, Int.MAX_VALUE, deadline)
+
+    /**
+     * Lexes what [highlight] needs until the deadline, returns true when it is all lexed.
+     */
+    fun lexRange(text: CharSequence, start: Int, end: Int, deadline: Long) =
+            highlighter.lexRange(text, start, end, deadline)
+
+    /**
+     * Fills the buffer with the tokens of the text between start and end, the lines above are
+     * taken into account. The style of every token is replaced by its color.
+     */
+    fun highlight(text: CharSequence, start: Int, end: Int, into: TokenBuffer) {
+        into.clear()
+        highlighter.highlight(text, start, end, into)
+        for (i in 0 until into.size())
+            into.setStyle(i, colorOf(into.style(i)))
+    }
+
+    /**
+     * The colors of a text on its own, as if it started a file.
+     */
+    fun highlightText(textToHighlight: CharSequence, firstColoredIndex: Int): MutableList<HighlightInfo> {
+        setText(textToHighlight)
+        val tokens = TokenBuffer()
+        highlight(textToHighlight, 0, textToHighlight.length, tokens)
+        return (0 until tokens.size()).mapTo(mutableListOf()) {
+            HighlightInfo(tokens.style(it), firstColoredIndex + tokens.start(it), firstColoredIndex + tokens.end(it))
+        }
+    }
+
+    private fun colorOf(style: Int): Int {
+        return when (style) {
+            Language.STYLE_KEYWORD -> colorProvider.keywordColor
+            Language.STYLE_ATTR -> colorProvider.attrColor
+            Language.STYLE_ATTR_VALUE -> colorProvider.attrValueColor
+            Language.STYLE_COMMENT -> colorProvider.commentColor
+            Language.STYLE_STRING -> colorProvider.stringColor
+            Language.STYLE_NUMBER -> colorProvider.numberColor
+            Language.STYLE_VARIABLE -> colorProvider.variableColor
+            else -> 0
+        }
     }
 }
 
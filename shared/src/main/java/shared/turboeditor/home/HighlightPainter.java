@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home;
+
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.text.TextPaint;
+
+import shared.turboeditor.home.highlight.TokenBuffer;
+
+/**
+ * Draws the text of a layout in the colors of its tokens, over an editor whose own text is
+ * transparent. The colors are not spans of the text, so an edit does not have to move them all
+ * and the layout is not measured again for them.
+ */
+class HighlightPainter {
+
+    private final TextPaint paint = new TextPaint();
+    // the advances of the chars of a line, measured with the whole line like the layout does
+    private float[] widths = new float[256];
+
+    /**
+     * Draws the lines between top and bottom, in layout coordinates. The tokens have colors as
+     * their style, the text they do not color is drawn in the plain color.
+     */
+    void draw(Canvas canvas, Layout layout, TextPaint textPaint, int plainColor, TokenBuffer tokens,
+              int top, int bottom) {
+        CharSequence text = layout.getText();
+        paint.set(textPaint);
+        int firstLine = layout.getLineForVertical(top);
+        int lastLine = layout.getLineForVertical(bottom);
+        int token = tokens.indexAfter(layout.getLineStart(firstLine));
+
+        for (int line = firstLine; line <= lastLine; line++) {
+            int start = layout.getLineStart(line);
+            int end = layout.getLineVisibleEnd(line);
+            if (start >= end)
+                continue;
+            // tabs and right to left text are placed by the layout
+            boolean simple = layout.getParagraphDirection(line) == Layout.DIR_LEFT_TO_RIGHT
+                    && isSimple(text, start, end);
+            if (simple) {
+                if (widths.length < end - start)
+                    widths = new float[Math.max(end - start, widths.length * 2)];
+                paint.getTextWidths(text, start, end, widths);
+            }
+            float x = layout.getPrimaryHorizontal(start);
+            float y = layout.getLineBaseline(line);
+
+            int position = start;
+            while (position < end) {
+                while (token < tokens.size() && tokens.end(token) <= position)
+                    token++;
+                int runEnd;
+                if (token < tokens.size() && tokens.start(token) <= position) {
+                    runEnd = Math.min(tokens.end(token), end);
+                    paint.setColor(tokens.style(token));
+                } else {
+                    runEnd = token < tokens.size() ? Math.min(tokens.start(token), end) : end;
+                    paint.setColor(plainColor);
+                }
+                if (!simple)
+                    x = layout.getPrimaryHorizontal(position);
+                canvas.drawText(text, position, runEnd, x, y, paint);
+                if (simple) {
+                    for (int i = position; i < runEnd; i++)
+                        x += widths[i - start];
+                }
+                position = runEnd;
+            }
+        }
+    }
+
+    /**
+     * Underlines the text between start and end, like the text being composed by the keyboard.
+     */
+    void drawUnderline(Canvas canvas, Layout layout, int color, float thickness, int start, int end) {
+        paint.setColor(color);
+        paint.setStrokeWidth(thickness);
+        int lastLine = layout.getLineForOffset(end);
+        for (int line = layout.getLineForOffset(start); line <= lastLine; line++) {
+            int lineStart = Math.max(start, layout.getLineStart(line));
+            int lineEnd = Math.min(end, layout.getLineVisibleEnd(line));
+            if (lineStart >= lineEnd)
+                continue;
+            float y = layout.getLineBaseline(line) + thickness * 2;
+            // the end of a wrapped line is the start of the next one
+            float right = lineEnd < layout.getLineEnd(line)
+                    ? layout.getPrimaryHorizontal(lineEnd) : layout.getLineRight(line);
+            canvas.drawLine(layout.getPrimaryHorizontal(lineStart), y, right, y, paint);
+        }
+    }
+
+    private static boolean isSimple(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\t')
+                return false;
+            if (c >= '\u0590') {
+                byte direction = Character.getDirectionality(c);
+                if (direction == Character.DIRECTIONALITY_RIGHT_TO_LEFT
+                        || direction == Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC
+                        || direction == Character.DIRECTIONALITY_RIGHT_TO_LEFT_EMBEDDING
+                        || direction == Character.DIRECTIONALITY_RIGHT_TO_LEFT_OVERRIDE)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,216 @@
+package shared.turboeditor.home
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.yield
+import shared.turboeditor.home.highlight.TokenBuffer
+import shared.turboeditor.home.texteditor.DocumentSnapshot
+import java.io.Closeable
+import java.util.concurrent.Executors
+
+/**
+ * Highlights the text of the editor on a thread of its own. It is told about the edits on the
+ * main thread and keeps its own copy of the text, the edits up to a request are applied to it
+ * on the worker thread. A request cancels the one before it and its colors are only delivered
+ * if the text did not change in the meantime. The work is done in slices of a few
+ * milliseconds, a request only waits for the slice that is running.
+ */
+class HighlightWorker(private val colorProvider: HighlightColorProvider,
+                      private val workerDispatcher: CoroutineDispatcher = newWorkerDispatcher(),
+                      mainDispatcher: CoroutineDispatcher = Dispatchers.Main) : Closeable {
+
+    interface Callback {
+        fun onHighlighted(highlights: TokenBuffer)
+    }
+
+    private class Edit(val version: Int, val start: Int, val before: Int, val inserted: String,
+                       val wholeText: Boolean = false)
+
+    private val scope = CoroutineScope(SupervisorJob() + mainDispatcher)
+    private var job: Job? = null
+
+    // changed on the main thread, every edit makes the colors computed before it out of date
+    private var version = 0
+    // the edits the driver did not see yet
+    private val pendingEdits = ArrayList<Edit>()
+    // the pages changed since the driver was told, the first of them
+    private var changedPage = Int.MAX_VALUE
+    // changed on the main thread
+    private var document: DocumentSnapshot? = null
+    // only used on the worker thread
+    private var driver: HighlightDriver? = null
+    // the text with the edits applied so far and a copy of it, only used on the worker thread
+    private val editedText = StringBuilder()
+    private var textSnapshot = ""
+    // the buffers given back after their colors were applied, a pass fills one of them
+    private val freeBuffers = ArrayList<TokenBuffer>()
+
+    fun onTextChanged(start: Int, before: Int, inserted: CharSequence) {
+        version++
+        synchronized(pendingEdits) {
+            pendingEdits.add(Edit(version, start, before, inserted.toString()))
+        }
+    }
+
+    /**
+     * The whole text was replaced.
+     */
+    fun setText(text: String) {
+        version++
+        synchronized(pendingEdits) {
+            pendingEdits.clear()
+            pendingEdits.add(Edit(version, 0, 0, text, wholeText = true))
+        }
+    }
+
+    /**
+     * The document the pages of the highlighted text are in, the pages from firstChangedPage on
+     * changed since it was last called.
+     */
+    fun setDocument(document: DocumentSnapshot?, firstChangedPage: Int) {
+        this.document = document
+        synchronized(pendingEdits) {
+            changedPage = Math.min(changedPage, firstChangedPage)
+        }
+    }
+
+    /**
+     * Colors the text between start and end, as it is after the edits told so far. The text is
+     * the given page of the document or -1. Then the pages before it and the lines after the
+     * range are lexed in the background, until the next request.
+     */
+    fun highlight(fileExtension: String, page: Int, start: Int, end: Int, callback: Callback) {
+        job?.cancel()
+        val requestVersion = version
+        val document = document
+        job = scope.launch {
+            var pageStartKnown = false
+            var snapshot = ""
+            val highlighter = withContext(workerDispatcher) {
+                val highlighter = driverFor(fileExtension, requestVersion)
+                snapshot = textSnapshot
+                pageStartKnown = highlighter.setPage(page)
+                highlighter
+            }
+            deliver(highlighter, snapshot, start, end, requestVersion, callback)
+
+            if (!pageStartKnown && document != null) {
+                val startChanged = withContext(workerDispatcher) {
+                    while (highlighter.lexNextPage(document)) {
+                        if (highlighter.setPage(page))
+                            break
+                        yield()
+                    }
+                    // the text was colored as if it started outside of everything
+                    highlighter.startState != 0
+                }
+                if (startChanged)
+                    deliver(highlighter, snapshot, start, end, requestVersion, callback)
+            }
+
+            withContext(workerDispatcher) {
+                while (highlighter.lexAhead(snapshot, System.nanoTime() + SLICE_NANOS))
+                    yield()
+            }
+        }
+    }
+
+    private suspend fun deliver(highlighter: HighlightDriver, snapshot: String, start: Int, end: Int,
+                                requestVersion: Int, callback: Callback) {
+        val tokens = withContext(workerDispatcher) {
+            yield()
+            while (!highlighter.lexRange(snapshot, start, end, System.nanoTime() + SLICE_NANOS))
+                yield()
+            takeBuffer().also { highlighter.highlight(snapshot, start, end, it) }
+        }
+        try {
+            if (requestVersion == version)
+                callback.onHighlighted(tokens)
+        } finally {
+            synchronized(freeBuffers) { freeBuffers.add(tokens) }
+        }
+    }
+
+    /**
+     * The driver of the extension, told about the text of the request. Only on the worker thread.
+     */
+    private fun driverFor(fileExtension: String, requestVersion: Int): HighlightDriver {
+        val current = driver
+        val highlighter = if (current != null && current.fileExtension == fileExtension) {
+            current
+        } else {
+            HighlightDriver(colorProvider, fileExtension).also { driver = it }
+        }
+        // a new driver has not seen any text
+        if (applyEdits(highlighter, requestVersion) || highlighter !== current)
+            highlighter.setText(textSnapshot)
+        return highlighter
+    }
+
+    fun cancel() {
+        job?.cancel()
+    }
+
+    override fun close() {
+        scope.cancel()
+        (workerDispatcher as? Closeable)?.close()
+    }
+
+    private fun takeBuffer(): TokenBuffer {
+        synchronized(freeBuffers) {
+            return if (freeBuffers.isEmpty()) TokenBuffer() else freeBuffers.removeAt(freeBuffers.size - 1)
+        }
+    }
+
+    /**
+     * Applies the edits up to the version of a request to the text and tells the driver about
+     * them, returns true if it has to be given the whole text.
+     */
+    private fun applyEdits(driver: HighlightDriver, upToVersion: Int): Boolean {
+        val edits = synchronized(pendingEdits) {
+            driver.invalidatePages(changedPage)
+            changedPage = Int.MAX_VALUE
+            var count = 0
+            while (count < pendingEdits.size && pendingEdits[count].version <= upToVersion)
+                count++
+            val taken = ArrayList(pendingEdits.subList(0, count))
+            pendingEdits.subList(0, count).clear()
+            taken
+        }
+        if (edits.isEmpty())
+            return false
+        val textReplaced = edits.any { it.wholeText }
+        for (edit in edits) {
+            if (edit.wholeText) {
+                editedText.setLength(0)
+                editedText.append(edit.inserted)
+            } else {
+                editedText.replace(edit.start, edit.start + edit.before, edit.inserted)
+                // the whole text is given to the driver anyway
+                if (!textReplaced)
+                    driver.onTextChanged(edit.start, edit.before, edit.inserted)
+            }
+        }
+        // the lexers run on a String, the regex engine reads nothing else without copying it
+        textSnapshot = editedText.toString()
+        return textReplaced
+    }
+
+    companion object {
+        // the time lexed before the worker lets a newer request in, half a frame
+        private const val SLICE_NANOS = 8_000_000L
+
+        private fun newWorkerDispatcher(): CoroutineDispatcher {
+            return Executors.newSingleThreadExecutor { runnable ->
+                Thread(runnable, "highlight").apply { isDaemon = true }
+            }.asCoroutineDispatcher()
+        }
+    }
+}
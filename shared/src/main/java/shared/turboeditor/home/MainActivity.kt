@@ -65,6 +65,8 @@ import java.io.UnsupportedEncodingException
 import java.util.ArrayList
 import java.util.Arrays
 import java.util.LinkedList
+import java.util.regex.Matcher
+import java.util.regex.Pattern
 
 import shared.turboeditor.R
 import shared.turboeditor.files.OpenFileManager
@@ -81,7 +83,8 @@ import shared.turboeditor.dialogfragment.NumberPickerDialog
 import shared.turboeditor.dialogfragment.SaveFileDialog
 import shared.turboeditor.preferences.PreferenceChangeType
 import shared.turboeditor.preferences.PreferenceHelper
-import shared.turboeditor.home.texteditor.LineUtils
+import shared.turboeditor.home.highlight.Grammars
+import shared.turboeditor.home.texteditor.DocumentSnapshot
 import shared.turboeditor.home.texteditor.PageSystem
 import shared.turboeditor.home.texteditor.PageSystemButtons
 import shared.turboeditor.home.texteditor.SearchResult
@@ -137,10 +140,12 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
     override fun onCreate(savedInstanceState: Bundle?) {
         // set the windows background
         ThemeUtils.setWindowsBackground(this)
+        ThemeUtils.setEditorColors(this)
         // super!!
         super.onCreate(savedInstanceState)
         // setup the layout
         setContentView(R.layout.activity_home)
+        setupGrammars()
 
         val factory = MainViewModelFactory(
                 OpenFileManager(this),
@@ -179,7 +184,13 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
                 is OpenFileState.FileLoadedState -> {
                     progressDialog.hide()
 
-                    pageSystem = PageSystem(this@MainActivity, this@MainActivity, item.fileText)
+                    pageSystem?.close()
+                    pageSystem = when {
+                        item.mappedText != null -> PageSystem(this@MainActivity, item.mappedText)
+                        item.progressive -> PageSystem(this@MainActivity)
+                        else -> PageSystem(this@MainActivity, item.fileText, PreferenceHelper.getSplitText(this@MainActivity))
+                    }
+                    appendLoadedPages()
                     //                    viewModel.currentEncoding = encoding; TODO
 
                     aFileWasSelected(viewModel!!.greatUri)
@@ -195,12 +206,33 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
                         refreshList(viewModel!!.greatUri, add = true, delete = false)
                     }
                 }
+
+                OpenFileState.LoadFailedState -> {
+                    progressDialog.hide()
+
+                    // the pages added before the file could not be read anymore are dropped
+                    pageSystem?.close()
+                    pageSystem = PageSystem(this@MainActivity, "", PreferenceHelper.getSplitText(this@MainActivity))
+                    supportActionBar!!.subtitle = null
+                    cannotOpenFile()
+                    Toast.makeText(this, getString(R.string.err_occured), Toast.LENGTH_SHORT).show()
+                }
+            }
+        })
+
+        viewModel?.loadingProgressLiveData?.observe(this, Observer { progress ->
+            appendLoadedPages()
+            supportActionBar!!.subtitle = when {
+                progress == 100 -> null
+                progress < 0 -> getString(R.string.please_wait)
+                else -> getString(R.string.loading_file_progress, progress)
             }
         })
 
         viewModel?.saveFileLiveData?.observe(this, Observer { item ->
             when (item) {
                 is SaveFileState.Success -> {
+                    pageSystem?.onDocumentSaved(item.document, item.pageTable)
                     Toast.makeText(this, String.format(getString(R.string.file_saved_with_success), item.fileName), Toast.LENGTH_SHORT).show()
                     savedAFile(viewModel?.greatUri, true)
                 }
@@ -244,6 +276,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
         } catch (e: NullPointerException) {
             e.printStackTrace()
         }
+        mEditor?.closeHighlighting()
 
         super.onDestroy()
     }
@@ -289,7 +322,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             } else if (mDrawerLayout!!.isDrawerOpen(GravityCompat.END) && fileOpened) {
                 mDrawerLayout!!.closeDrawer(GravityCompat.END)
             } else if (fileOpened && mEditor!!.canSaveFile()) {
-                SaveFileDialog.create(viewModel?.greatUri, pageSystem?.getAllText(mEditor!!.text.toString()), viewModel?.currentEncoding).show(supportFragmentManager, "dialog")
+                SaveFileDialog.create(viewModel?.greatUri, viewModel?.currentEncoding).show(supportFragmentManager, "dialog")
             } else if (fileOpened) {
 
                 // remove editor fragment
@@ -337,7 +370,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
                 }
 
                 if (requestCode == SAVE_AS_REQUEST_CODE) {
-                    viewModel?.saveFileAndOpen(newUri, pageSystem!!.getAllText(mEditor!!.text!!.toString()), viewModel!!.currentEncoding!!)
+                    viewModel?.saveFileAndOpen(newUri, getSaveSnapshot(), viewModel!!.currentEncoding!!)
                 }
             }
         }
@@ -464,7 +497,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             mEditor!!.onTextContextMenuItem(ID_REDO)
 
         } else if (i == R.id.im_search) {
-            FindTextDialog.newInstance(mEditor!!.text!!.toString()).show(fragmentManager
+            FindTextDialog.newInstance().show(fragmentManager
                     .beginTransaction(), "dialog")
         } else if (i == R.id.im_cancel) {
             searchResult = null
@@ -483,9 +516,10 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             previousResult()
 
         } else if (i == R.id.im_goto_line) {
-            val min = mEditor!!.lineUtils.firstReadLine()
-            val max = mEditor!!.lineUtils.lastReadLine()
-            NumberPickerDialog.newInstance(NumberPickerDialog.Actions.GoToLine, min, min, max).show(fragmentManager.beginTransaction(), "dialog")
+            // the lines of the whole document, numbered from 1
+            val positions = mEditor!!.positions
+            val current = positions.getDocumentLine(0) + 1
+            NumberPickerDialog.newInstance(NumberPickerDialog.Actions.GoToLine, 1, current, positions.documentLineCount).show(fragmentManager.beginTransaction(), "dialog")
         } else if (i == R.id.im_view_it_on_browser) {
             val browserIntent: Intent
             try {
@@ -518,10 +552,23 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
     // region OTHER THINGS
     internal fun replaceText(all: Boolean) {
         if (all) {
-            if (searchResult!!.isRegex)
-                mEditor!!.setText(pageSystem!!.getAllText(mEditor!!.text!!.toString()).replace(searchResult!!.whatToSearch.toRegex(), searchResult!!.textToReplace))
+            val pattern = if (searchResult!!.isRegex)
+                Pattern.compile(searchResult!!.whatToSearch)
+            else
+                Pattern.compile(searchResult!!.whatToSearch, Pattern.LITERAL)
+            val replacement = if (searchResult!!.isRegex)
+                searchResult!!.textToReplace
             else
-                mEditor!!.setText(pageSystem!!.getAllText(mEditor!!.text!!.toString()).replace(searchResult!!.whatToSearch, searchResult!!.textToReplace))
+                Matcher.quoteReplacement(searchResult!!.textToReplace)
+            if (pageSystem!!.replaceAll(mEditor!!.text!!.toString(), pattern, replacement) > 0) {
+                // the pages a match went across were merged, the current one may have moved
+                val text = pageSystem!!.currentPageText
+                mEditor!!.setPage(pageSystem!!.currentPage)
+                if (PreferenceHelper.getSyntaxHighlight(this))
+                    mEditor!!.setDocument(pageSystem!!.getDocumentSnapshot(text), pageSystem!!.takeFirstChangedPage())
+                mEditor!!.setText(text)
+                pageSystemButtons!!.updateVisibility(false)
+            }
 
             searchResult = null
             invalidateOptionsMenu()
@@ -550,23 +597,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
 
         if (searchResult!!.index < searchResult!!.numberOfResults() - 1) { // equal zero is not good
             searchResult!!.index++
-            val line = LineUtils.getLineFromIndex(searchResult!!.foundIndex[searchResult!!.index], mEditor!!.lineCount, mEditor!!.layout)
-
-
-            verticalScroll.post {
-                var y = mEditor!!.layout.getLineTop(line)
-                if (y > 100)
-                    y -= 100
-                else
-                    y = 0
-
-                verticalScroll.scrollTo(0, y)
-            }
-
-            mEditor!!.isFocusable = true
-            mEditor!!.requestFocus()
-            mEditor!!.setSelection(searchResult!!.foundIndex[searchResult!!.index],
-                    searchResult!!.foundIndex[searchResult!!.index] + searchResult!!.textLength)
+            showFoundText(searchResult!!.foundIndex[searchResult!!.index], searchResult!!.textLength)
         }
 
         invalidateOptionsMenu()
@@ -577,25 +608,32 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             return
         if (searchResult!!.index > 0) {
             searchResult!!.index--
-            val line = LineUtils.getLineFromIndex(searchResult!!.foundIndex[searchResult!!.index], mEditor!!.lineCount, mEditor!!.layout)
-            verticalScroll.post {
-                var y = mEditor!!.layout.getLineTop(line)
-                if (y > 100)
-                    y -= 100
-                else
-                    y = 0
-                verticalScroll.scrollTo(0, y)
-            }
-
-            mEditor!!.isFocusable = true
-            mEditor!!.requestFocus()
-            mEditor!!.setSelection(searchResult!!.foundIndex[searchResult!!.index],
-                    searchResult!!.foundIndex[searchResult!!.index] + searchResult!!.textLength)
+            showFoundText(searchResult!!.foundIndex[searchResult!!.index], searchResult!!.textLength)
         }
 
         invalidateOptionsMenu()
     }
 
+    /**
+     * Scrolls to the text found at the offset of the page and selects it.
+     */
+    private fun showFoundText(start: Int, length: Int) {
+        val row = mEditor!!.positions.getRowOfOffset(start)
+        verticalScroll.post {
+            var y = mEditor!!.layout.getLineTop(row)
+            if (y > 100)
+                y -= 100
+            else
+                y = 0
+
+            verticalScroll.scrollTo(0, y)
+        }
+
+        mEditor!!.isFocusable = true
+        mEditor!!.requestFocus()
+        mEditor!!.setSelection(start, start + length)
+    }
+
     private fun useStorageAccessFramework(): Boolean {
         if (!Device.hasKitKatApi())
             return false
@@ -611,8 +649,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
 
     fun saveTheFile(saveAs: Boolean) {
         if (!saveAs && viewModel!!.greatUri != null && viewModel!!.greatUri!!.uri != null && viewModel!!.greatUri!!.uri !== Uri.EMPTY)
-            viewModel?.saveFile(viewModel!!.greatUri!!, pageSystem!!.getAllText(mEditor!!.text!!
-                    .toString()), viewModel!!.currentEncoding!!)
+            viewModel?.saveFile(viewModel!!.greatUri!!, getSaveSnapshot(), viewModel!!.currentEncoding!!)
         else {
             if (useStorageAccessFramework()) {
                 val intent = Intent(Intent.ACTION_CREATE_DOCUMENT)
@@ -622,7 +659,6 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             } else {
                 NewFileDetailsDialog(
                         viewModel!!.greatUri!!,
-                        pageSystem!!.getAllText(mEditor!!.text!!.toString()),
                         viewModel!!.currentEncoding!!
                 ).show(supportFragmentManager, "dialog")
             }
@@ -672,6 +708,13 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
         listView.onItemClickListener = this
     }
 
+    private fun setupGrammars() {
+        if (Grammars.hasDefault())
+            return
+        val assets = applicationContext.assets
+        Grammars.setDefault(Grammars(Grammars.Source { assets.open("grammars/$it") }))
+    }
+
     private fun setupTextEditor() {
 
         verticalScroll = findViewById(R.id.vertical_scroll)
@@ -693,7 +736,8 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
 
         verticalScroll.setScrollInterface(this)
 
-        pageSystem = PageSystem(this, this, "")
+        pageSystem?.close()
+        pageSystem = PageSystem(this, "", PreferenceHelper.getSplitText(this))
 
         pageSystemButtons = PageSystemButtons(this, this,
                 findViewById(R.id.fabPrev),
@@ -715,10 +759,36 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
         invalidateOptionsMenu()
 
         mEditor!!.disableTextChangedListener()
-        mEditor!!.replaceTextKeepCursor(pageSystem!!.currentPageText)
+        showCurrentPage()
         mEditor!!.enableTextChangedListener()
     }
 
+    /**
+     * Shows the current page, it is colored from the state the pages before it leave the lexer in.
+     */
+    private fun showCurrentPage() {
+        val text = pageSystem!!.currentPageText
+        if (PreferenceHelper.getSyntaxHighlight(this))
+            mEditor!!.setDocument(pageSystem!!.getDocumentSnapshot(text), pageSystem!!.takeFirstChangedPage())
+        mEditor!!.replaceTextKeepCursor(text, pageSystem!!.currentPage)
+    }
+
+    /**
+     * Adds to the page system the pages read while the file is being opened.
+     */
+    private fun appendLoadedPages() {
+        val pages = viewModel?.takeLoadedPages() ?: return
+        for (page in pages) {
+            if (page.text != null)
+                pageSystem!!.appendPage(page.text)
+            else
+                pageSystem!!.appendPage(page.byteStart, page.byteEnd, page.charLength, page.newLines,
+                        page.carriageReturns)
+        }
+        if (pages.isNotEmpty())
+            pageSystemButtons!!.updateVisibility(false)
+    }
+
     private fun hideTextEditor() {
 
         fileOpened = false
@@ -851,8 +921,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
     internal fun newFileToOpen(newUri: GreatUri?, newFileText: String?) {
 
         if (fileOpened && mEditor != null && mEditor!!.canSaveFile() && viewModel!!.greatUri != null && pageSystem != null && viewModel!!.currentEncoding != null) {
-            SaveFileDialog.create(viewModel!!.greatUri, pageSystem!!.getAllText(mEditor!!
-                    .text!!.toString()), viewModel!!.currentEncoding, true, newUri!!)
+            SaveFileDialog.create(viewModel!!.greatUri, viewModel!!.currentEncoding, true, newUri!!)
                     .show(supportFragmentManager, "dialog")
             return
         }
@@ -921,6 +990,9 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             accessoryView.updateTextColors()
         }
 
+        if (types.contains(PreferenceChangeType.WRAP_CONTENT) || types.contains(PreferenceChangeType.LINE_NUMERS))
+            mEditor!!.readSettings()
+
         if (types.contains(PreferenceChangeType.WRAP_CONTENT)) {
             if (PreferenceHelper.getWrapContent(this)) {
                 horizontalScroll!!.removeView(mEditor)
@@ -1084,7 +1156,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
         pageSystem!!.savePage(mEditor!!.text!!.toString())
         pageSystem!!.nextPage()
         mEditor!!.disableTextChangedListener()
-        mEditor!!.replaceTextKeepCursor(pageSystem!!.currentPageText)
+        showCurrentPage()
         mEditor!!.enableTextChangedListener()
 
         verticalScroll.postDelayed({ verticalScroll.smoothScrollTo(0, 0) }, 200)
@@ -1100,7 +1172,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
         pageSystem!!.savePage(mEditor!!.text!!.toString())
         pageSystem!!.prevPage()
         mEditor!!.disableTextChangedListener()
-        mEditor!!.replaceTextKeepCursor(pageSystem!!.currentPageText)
+        showCurrentPage()
         mEditor!!.enableTextChangedListener()
 
         verticalScroll.postDelayed({ verticalScroll.smoothScrollTo(0, 0) }, 200)
@@ -1126,25 +1198,17 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
         return pageSystem!!.canReadPrevPage()
     }
 
+    override fun getTextToSearch(): CharSequence {
+        val pageStart = pageSystem!!.getPageStart(pageSystem!!.currentPage)
+        return pageSystem!!.getDocumentText(mEditor!!.text!!.toString())
+                .subSequence(pageStart, pageStart + pageSystem!!.getPageLength(pageSystem!!.currentPage))
+    }
+
     override fun onSearchDone(searchResult: SearchResult) {
         MainActivity.searchResult = searchResult
         invalidateOptionsMenu()
 
-        val line = LineUtils.getLineFromIndex(searchResult.foundIndex.first, mEditor!!.lineCount, mEditor!!.layout)
-        verticalScroll.post {
-            var y = mEditor!!.layout.getLineTop(line)
-            if (y > 100)
-                y -= 100
-            else
-                y = 0
-
-            verticalScroll.scrollTo(0, y)
-        }
-
-        mEditor!!.isFocusable = true
-        mEditor!!.requestFocus()
-        mEditor!!.setSelection(searchResult.foundIndex.first, searchResult.foundIndex.first + searchResult.textLength)
-
+        showFoundText(searchResult.foundIndex[0], searchResult.textLength)
     }
 
     override fun onPageChanged(page: Int) {
@@ -1170,18 +1234,31 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             pageSystem!!.savePage(mEditor!!.text!!.toString())
             pageSystem!!.goToPage(value)
             mEditor!!.disableTextChangedListener()
-            mEditor!!.replaceTextKeepCursor(pageSystem!!.currentPageText)
+            showCurrentPage()
             mEditor!!.enableTextChangedListener()
 
             verticalScroll.postDelayed({ verticalScroll.smoothScrollTo(0, 0) }, 200)
 
         } else if (action == NumberPickerDialog.Actions.GoToLine) {
 
-            val fakeLine = mEditor!!.lineUtils.fakeLineFromRealLine(value)
-            val y = LineUtils.getYAtLine(verticalScroll,
-                    mEditor!!.lineCount, fakeLine)
+            val line = value - 1
+            val page = mEditor!!.positions.getPageOfDocumentLine(line)
+            if (page != pageSystem!!.currentPage) {
+                pageSystem!!.savePage(mEditor!!.text!!.toString())
+                pageSystem!!.goToPage(page)
+                mEditor!!.disableTextChangedListener()
+                showCurrentPage()
+                mEditor!!.enableTextChangedListener()
+            }
 
-            verticalScroll.postDelayed({ verticalScroll.smoothScrollTo(0, y) }, 200)
+            verticalScroll.postDelayed({
+                // the line is on the page shown now, once it is laid out
+                val positions = mEditor!!.positions
+                val pageLine = positions.getLineOfDocumentLine(line)
+                val layout = mEditor!!.layout
+                val y = if (pageLine >= 0 && layout != null) layout.getLineTop(positions.getRowOfLine(pageLine)) else 0
+                verticalScroll.smoothScrollTo(0, y)
+            }, 200)
         }
 
     }
@@ -1194,8 +1271,15 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
             cannotOpenFile()
     }
 
-    override fun startSavingFile(uri: GreatUri, text: String, encoding: String) {
-        viewModel?.saveFile(uri, text, encoding)
+    override fun startSavingFile(uri: GreatUri, encoding: String) {
+        viewModel?.saveFile(uri, getSaveSnapshot(), encoding)
+    }
+
+    /**
+     * The text to save, it is not copied.
+     */
+    private fun getSaveSnapshot(): DocumentSnapshot {
+        return pageSystem!!.getSaveSnapshot(mEditor!!.text!!.toString())
     }
 
     override fun CancelItem(position: Int, andCloseOpenedFile: Boolean) {
@@ -1228,7 +1312,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
                 viewModel!!.greatUri!!.filePath = AccessStorageApi.getPath(this, newUri)
                 viewModel!!.greatUri!!.fileName = AccessStorageApi.getName(this, newUri)
 
-                viewModel?.saveFile(viewModel!!.greatUri!!, pageSystem!!.getAllText(mEditor!!.text!!.toString()), viewModel!!.currentEncoding!!)
+                viewModel?.saveFile(viewModel!!.greatUri!!, getSaveSnapshot(), viewModel!!.currentEncoding!!)
             } else {
                 Toast.makeText(this, R.string.file_cannot_be_renamed, Toast.LENGTH_SHORT).show()
             }
@@ -1244,7 +1328,7 @@ abstract class MainActivity : AppCompatActivity(), IHomeActivity, FindTextDialog
                 viewModel!!.greatUri!!.filePath = newFile.absolutePath
                 viewModel!!.greatUri!!.fileName = newFile.name
 
-                viewModel?.saveFile(viewModel!!.greatUri!!, pageSystem!!.getAllText(mEditor!!.text!!.toString()), viewModel!!.currentEncoding!!)
+                viewModel?.saveFile(viewModel!!.greatUri!!, getSaveSnapshot(), viewModel!!.currentEncoding!!)
             } else {
                 Toast.makeText(this, R.string.file_cannot_be_renamed, Toast.LENGTH_SHORT).show()
             }
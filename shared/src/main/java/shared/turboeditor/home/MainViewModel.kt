@@ -5,12 +5,20 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
 import shared.turboeditor.files.Failure
 import shared.turboeditor.files.IOpenFileManager
 import shared.turboeditor.files.ISaveFileManager
+import shared.turboeditor.files.LoadedPage
 import shared.turboeditor.files.Success
+import shared.turboeditor.home.texteditor.DocumentSnapshot
+import shared.turboeditor.home.texteditor.MappedText
+import shared.turboeditor.home.texteditor.PageTable
 import shared.turboeditor.util.GreatUri
+import java.io.IOException
+import java.util.*
 
 class MainViewModel(
         private val openFileManager: IOpenFileManager,
@@ -18,52 +26,124 @@ class MainViewModel(
 
     private var openFileSink = MutableLiveData<OpenFileState>()
     private var saveFileSink = MutableLiveData<SaveFileState>()
+    private var loadingProgressSink = MutableLiveData<Int>()
 
     var openFileLiveData: LiveData<OpenFileState> = openFileSink
 
     var saveFileLiveData: LiveData<SaveFileState> = saveFileSink
 
+    /**
+     * Changes every time new pages are waiting in [takeLoadedPages], from 0 to 100 or -1 if
+     * the size of the file is unknown.
+     */
+    var loadingProgressLiveData: LiveData<Int> = loadingProgressSink
+
     var greatUri: GreatUri? = GreatUri(Uri.EMPTY, "", "")
         private set
 
     var currentEncoding: String? = "UTF-16"
         private set
 
+    private var openFileJob: Job? = null
+
+    // pages read and not yet added to the page system, only used on the main thread
+    private val loadedPages = ArrayDeque<LoadedPage>()
+
+    var isLoadingFile = false
+        private set
+
     fun openFile(newUri: GreatUri?, newFileText: String?) {
         if (newUri == null) {
             openFileSink.postValue(OpenFileState.EmptyUriState)
             return
         }
 
+        openFileJob?.cancel()
+        loadedPages.clear()
         openFileSink.postValue(OpenFileState.OpenFileStartState)
-        viewModelScope.launch {
+        openFileJob = viewModelScope.launch {
             when (val result = openFileManager.openFile(newUri, newFileText ?: "")) {
                 is Success -> {
-                    openFileSink.postValue(OpenFileState.FileLoadedState(
-                            fileName = result.fileName!!,
-                            fileText = result.fileText!!
-                    ))
-
                     greatUri = newUri
                     currentEncoding = result.encoding
+
+                    val pages = result.pages
+                    if (pages == null) {
+                        openFileSink.postValue(OpenFileState.FileLoadedState(
+                                fileName = result.fileName!!,
+                                fileText = result.fileText!!,
+                                mappedText = result.mappedText
+                        ))
+                        return@launch
+                    }
+
+                    // the editor is shown with the first page, the others are added while they are read
+                    isLoadingFile = true
+                    var firstPage = true
+                    try {
+                        pages.collect { page ->
+                            loadedPages.add(page)
+                            if (firstPage) {
+                                firstPage = false
+                                openFileSink.value = OpenFileState.FileLoadedState(
+                                        fileName = result.fileName!!,
+                                        fileText = result.fileText!!,
+                                        mappedText = result.mappedText,
+                                        progressive = true
+                                )
+                            } else {
+                                loadingProgressSink.value = page.progress
+                            }
+                        }
+                    } catch (e: IOException) {
+                        e.printStackTrace()
+                        // the pages shown so far are not the whole file, it must not be edited and saved
+                        loadedPages.clear()
+                        try {
+                            result.mappedText?.close()
+                        } catch (ignored: IOException) {
+                        }
+                        openFileSink.postValue(OpenFileState.LoadFailedState)
+                        return@launch
+                    } finally {
+                        isLoadingFile = false
+                    }
+                    loadingProgressSink.value = 100
                 }
                 Failure -> openFileSink.postValue(OpenFileState.LoadFailedState)
             }
         }
     }
 
-    fun saveFile(uri: GreatUri, text: String, encoding: String) {
+    /**
+     * The pages read since the last call, they have to be appended to the page system.
+     */
+    fun takeLoadedPages(): List<LoadedPage> {
+        val pages = ArrayList(loadedPages)
+        loadedPages.clear()
+        return pages
+    }
+
+    fun saveFile(uri: GreatUri, document: DocumentSnapshot, encoding: String) {
+        if (isLoadingFile) {
+            saveFileSink.postValue(SaveFileState.Failed)
+            return
+        }
         viewModelScope.launch {
-            when (saveFileManager.saveFile(uri, text, encoding)) {
-                is Success -> saveFileSink.postValue(SaveFileState.Success(uri.fileName ?: ""))
+            when (val result = saveFileManager.saveFile(uri, document, encoding)) {
+                is Success -> saveFileSink.postValue(SaveFileState.Success(uri.fileName ?: "", document, result.pageTable))
                 Failure -> saveFileSink.postValue(SaveFileState.Failed)
             }
         }
     }
 
-    fun saveFileAndOpen(uri: GreatUri, text: String, encoding: String) {
+    fun saveFileAndOpen(uri: GreatUri, document: DocumentSnapshot, encoding: String) {
+        if (isLoadingFile) {
+            saveFileSink.postValue(SaveFileState.Failed)
+            return
+        }
         viewModelScope.launch {
-            when (saveFileManager.saveFile(uri, text, encoding)) {
+            when (saveFileManager.saveFile(uri, document, encoding)) {
                 is Success -> saveFileSink.postValue(SaveFileState.SuccessAndOpen(uri.fileName ?: ""))
                 Failure -> saveFileSink.postValue(SaveFileState.Failed)
             }
@@ -76,14 +156,22 @@ sealed class OpenFileState {
     object OpenFileStartState : OpenFileState()
     data class FileLoadedState(
             val fileName: String,
-            val fileText: String
+            val fileText: String,
+            val mappedText: MappedText? = null,
+            // the pages are in takeLoadedPages()
+            val progressive: Boolean = false
     ) : OpenFileState()
 
     object LoadFailedState : OpenFileState()
 }
 
 sealed class SaveFileState {
-    data class Success(val fileName: String) : SaveFileState()
+    data class Success(
+            val fileName: String,
+            val document: DocumentSnapshot,
+            // where the pages are in the saved file, null if unknown
+            val pageTable: PageTable?
+    ) : SaveFileState()
     data class SuccessAndOpen(val fileName: String) : SaveFileState()
     object Failed : SaveFileState()
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The grammars of the languages, json files in the grammars folder of the assets. Their index
+ * tells the grammar of every extension, in order, the first that matches wins:
+ * <pre>
+ * {"grammars": [{"grammar": "config", "extensions": ["prop"], "extensionContains": ["conf"]}, ...]}
+ * </pre>
+ * An entry with no extensions matches all of them. Only the grammar of the opened extension is
+ * read and compiled, see {@link Language#compile}, and the language is kept in memory.
+ */
+public class Grammars {
+
+    public interface Source {
+        InputStream open(String fileName) throws IOException;
+    }
+
+    private static final String INDEX = "index.json";
+
+    private static Grammars defaultGrammars;
+
+    private final Source source;
+    private List<Map<String, Object>> index;
+    private final Map<String, Language> languages = new HashMap<>();
+
+    public Grammars(Source source) {
+        this.source = source;
+    }
+
+    public static synchronized void setDefault(Grammars grammars) {
+        defaultGrammars = grammars;
+    }
+
+    public static synchronized boolean hasDefault() {
+        return defaultGrammars != null;
+    }
+
+    /**
+     * The grammars set by the app, or the ones on the class path.
+     */
+    public static synchronized Grammars getDefault() {
+        if (defaultGrammars == null) {
+            defaultGrammars = new Grammars(fileName -> {
+                InputStream in = Grammars.class.getClassLoader().getResourceAsStream("grammars/" + fileName);
+                if (in == null)
+                    throw new FileNotFoundException(fileName);
+                return in;
+            });
+        }
+        return defaultGrammars;
+    }
+
+    /**
+     * The language of the files with the extension, a grammar that can't be read colors
+     * nothing.
+     */
+    public synchronized Language forExtension(String fileExtension) {
+        String name;
+        try {
+            name = grammarOf(fileExtension);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Language.plainText();
+        }
+        Language language = languages.get(name);
+        if (language == null) {
+            language = load(name);
+            languages.put(name, language);
+        }
+        return language;
+    }
+
+    /**
+     * The name of the grammar of the extension.
+     */
+    public synchronized String grammarOf(String fileExtension) throws IOException {
+        if (index == null)
+            index = readIndex();
+        for (Map<String, Object> entry : index) {
+            boolean any = true;
+            if (entry.containsKey("extensions")) {
+                any = false;
+                if (Language.listOf(entry, "extensions").contains(fileExtension))
+                    return nameOf(entry);
+            }
+            if (entry.containsKey("extensionContains")) {
+                any = false;
+                for (Object part : Language.listOf(entry, "extensionContains")) {
+                    if (fileExtension.contains(String.valueOf(part)))
+                        return nameOf(entry);
+                }
+            }
+            if (any)
+                return nameOf(entry);
+        }
+        throw new IOException("no grammar for " + fileExtension);
+    }
+
+    private List<Map<String, Object>> readIndex() throws IOException {
+        Object json;
+        try (InputStream in = source.open(INDEX)) {
+            json = Json.read(in);
+        }
+        if (!(json instanceof Map))
+            throw new IOException(INDEX + ": object expected");
+        @SuppressWarnings("unchecked")
+        List<Object> grammars = Language.listOf((Map<String, Object>) json, "grammars");
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (Object entry : grammars) {
+            if (!(entry instanceof Map))
+                throw new IOException(INDEX + ": entry expected");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) entry;
+            nameOf(map);
+            entries.add(map);
+        }
+        return entries;
+    }
+
+    private static String nameOf(Map<String, Object> entry) throws IOException {
+        Object name = entry.get("grammar");
+        if (!(name instanceof String))
+            throw new IOException(INDEX + ": grammar expected");
+        return (String) name;
+    }
+
+    private Language load(String name) {
+        try (InputStream in = source.open(name + ".json")) {
+            Object json = Json.read(in);
+            if (!(json instanceof Map))
+                throw new IOException(name + ": object expected");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> grammar = (Map<String, Object>) json;
+            return Language.compile(grammar);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Language.plainText();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The colors of the pages seen last, so a page can be colored as soon as it is shown again. An
+ * entry is only used if the page still has the text it was colored with, the least recently
+ * used ones are dropped when they take more than the given bytes.
+ */
+public class HighlightCache {
+
+    // what an entry takes besides its tokens, roughly
+    private static final int ENTRY_BYTES = 64;
+
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public HighlightCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void put(int page, int textHash, TokenBuffer tokens) {
+        int[] packed = new int[tokens.size() * 3];
+        for (int i = 0; i < tokens.size(); i++) {
+            packed[i * 3] = tokens.start(i);
+            packed[i * 3 + 1] = tokens.end(i);
+            packed[i * 3 + 2] = tokens.style(i);
+        }
+        Entry entry = new Entry(textHash, packed);
+        if (entry.bytes() > maxBytes) {
+            remove(page);
+            return;
+        }
+
+        Entry old = entries.put(page, entry);
+        if (old != null)
+            bytes -= old.bytes();
+        bytes += entry.bytes();
+
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Fills the buffer with the colors of the page, returns false if they are not known for
+     * this text.
+     */
+    public boolean get(int page, int textHash, TokenBuffer into) {
+        Entry entry = entries.get(page);
+        if (entry == null)
+            return false;
+        if (entry.textHash != textHash) {
+            // the page was edited since
+            remove(page);
+            return false;
+        }
+
+        into.clear();
+        int[] tokens = entry.tokens;
+        for (int i = 0; i < tokens.length; i += 3)
+            into.token(tokens[i], tokens[i + 1], tokens[i + 2]);
+        return true;
+    }
+
+    public void remove(int page) {
+        Entry entry = entries.remove(page);
+        if (entry != null)
+            bytes -= entry.bytes();
+    }
+
+    public void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    private static final class Entry {
+        final int textHash;
+        final int[] tokens;
+
+        Entry(int textHash, int[] tokens) {
+            this.textHash = textHash;
+            this.tokens = tokens;
+        }
+
+        long bytes() {
+            return ENTRY_BYTES + tokens.length * 4L;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.util.Arrays;
+
+import shared.turboeditor.home.texteditor.LineTree;
+
+/**
+ * Highlights a text that is edited, remembering the lexer state at the start of every line.
+ * An edit only forgets the tokens of the lines it touched, and when a range is highlighted the
+ * lines are lexed again from the first changed one until the state they start in is the same
+ * as before: the lines after that keep their tokens. Typing costs the lexing of the edited
+ * lines, not of the whole range, and what is kept for the lines after an edit is not moved
+ * when it adds or removes lines.
+ * <p>
+ * The lines longer than a maximum are not lexed, they are degraded to plain text. The lexing
+ * can be done in slices that end at a deadline, the next slice goes on from the first line
+ * whose state is not known.
+ */
+public class IncrementalHighlighter {
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int NOT_LEXED = -1;
+    private static final int[] NO_TOKENS = new int[0];
+
+    private final Language language;
+    // the length of every line, its new line included, and what was lexed in it
+    private LineTree<Line> lines;
+    private int maxLineLength = Language.DEFAULT_MAX_LINE_LENGTH;
+    // the lines before it start in the right state
+    private int validLines;
+    // the state the text starts in, where the page before it left the lexer
+    private int startState;
+
+    private int[] lexed = new int[48];
+    private int lexedSize;
+    private final TokenSink lexedSink = (start, end, style) -> {
+        if (lexedSize + 3 > lexed.length)
+            lexed = Arrays.copyOf(lexed, lexed.length * 2);
+        lexed[lexedSize++] = start;
+        lexed[lexedSize++] = end;
+        lexed[lexedSize++] = style;
+    };
+
+    public IncrementalHighlighter(Language language) {
+        this.language = language;
+        setText("");
+    }
+
+    /**
+     * Forgets everything, the text is lexed again when it is highlighted.
+     */
+    public void setText(CharSequence text) {
+        lines = new LineTree<>();
+        int lineStart = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                lines.append(i + 1 - lineStart, new Line());
+                lineStart = i + 1;
+            }
+        }
+        lines.append(length - lineStart, new Line());
+        validLines = 0;
+    }
+
+    /**
+     * The lines longer than that are plain text, they end in the state they start in.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        if (maxLineLength == this.maxLineLength)
+            return;
+        this.maxLineLength = maxLineLength;
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            line.startState = NOT_LEXED;
+            line.tokens = null;
+        }
+        validLines = 0;
+    }
+
+    public boolean isDegraded(int line) {
+        return lines.get(line).degraded;
+    }
+
+    /**
+     * The lines that were too long to be lexed, among the ones lexed since they last changed.
+     */
+    public int[] getDegradedLines() {
+        int count = 0;
+        for (int line = 0; line < lines.size(); line++) {
+            if (lines.get(line).degraded)
+                count++;
+        }
+        int[] degradedLines = new int[count];
+        count = 0;
+        for (int line = 0; line < lines.size(); line++) {
+            if (lines.get(line).degraded)
+                degradedLines[count++] = line;
+        }
+        return degradedLines;
+    }
+
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    public void setStartState(int state) {
+        if (state == startState)
+            return;
+        startState = state;
+        validLines = 0;
+    }
+
+    public int getStartState() {
+        return startState;
+    }
+
+    /**
+     * Tells that the chars from start to start plus before were replaced with the inserted
+     * ones. Only the inserted text is read, the edit can be applied after the text changed
+     * again.
+     */
+    public void onTextChanged(int start, int before, CharSequence inserted) {
+        int firstLine = lineOf(start);
+        int lastLine = lineOf(start + before);
+        int rangeStart = lines.getStart(firstLine);
+        int rangeEnd = lines.getStart(lastLine + 1);
+
+        // the lines of the changed range as they are now: what is left of the first and the
+        // last line around the inserted text
+        int[] lengths = new int[lastLine - firstLine + 2];
+        int newLines = 0;
+        int length = start - rangeStart;
+        for (int i = 0; i < inserted.length(); i++) {
+            length++;
+            if (inserted.charAt(i) == '\n') {
+                if (newLines == lengths.length)
+                    lengths = Arrays.copyOf(lengths, newLines * 2);
+                lengths[newLines++] = length;
+                length = 0;
+            }
+        }
+        // the rest of the last line ends with its new line, or it is the end of the text
+        if (newLines == lengths.length)
+            lengths = Arrays.copyOf(lengths, newLines + 1);
+        lengths[newLines++] = length + rangeEnd - start - before;
+
+        int oldLines = lastLine - firstLine + 1;
+        if (newLines == oldLines) {
+            for (int i = 0; i < newLines; i++) {
+                lines.setLength(firstLine + i, lengths[i]);
+                Line line = lines.get(firstLine + i);
+                line.startState = NOT_LEXED;
+                line.tokens = null;
+                line.degraded = false;
+            }
+        } else {
+            lines.splice(firstLine, oldLines, lengths, newLines);
+            for (int i = firstLine; i < firstLine + newLines; i++)
+                lines.set(i, new Line());
+        }
+        validLines = Math.min(validLines, firstLine);
+    }
+
+    /**
+     * Sends the tokens between start and end to the sink, cut to the range. The lines before
+     * the range are lexed first if their state is not known.
+     */
+    public void highlight(CharSequence text, int start, int end, TokenSink sink) {
+        lexRange(text, start, end, NO_DEADLINE);
+        if (start >= end)
+            return;
+
+        int firstLine = lineOf(start);
+        int lastLine = lineOf(end - 1);
+        int lineStart = lines.getStart(firstLine);
+        for (int line = firstLine; line <= lastLine; line++) {
+            int[] tokens = lines.get(line).tokens;
+            for (int i = 0; i < tokens.length; i += 3) {
+                int tokenStart = Math.max(start, lineStart + tokens[i]);
+                int tokenEnd = Math.min(end, lineStart + tokens[i + 1]);
+                if (tokenStart < tokenEnd)
+                    sink.token(tokenStart, tokenEnd, tokens[i + 2]);
+            }
+            lineStart += lines.getLength(line);
+        }
+    }
+
+    /**
+     * Lexes what highlighting the range needs, until the deadline, a time of
+     * {@link System#nanoTime()}: it stops after the line that ends past it. Returns true when
+     * all of it is lexed, the range is then highlighted without lexing.
+     */
+    public boolean lexRange(CharSequence text, int start, int end, long deadline) {
+        if (lines.length() != text.length()) {
+            // changed without being told
+            setText(text);
+        }
+        if (start >= end)
+            return true;
+
+        int firstLine = lineOf(start);
+        int lastLine = lineOf(end - 1);
+        if (!lexUpTo(text, lastLine, firstLine, deadline))
+            return false;
+        for (int line = firstLine; line <= lastLine; line++) {
+            if (lines.get(line).tokens == null) {
+                // lexed ahead, only its state was kept
+                lexLine(text, line, lines.getStart(line), lines.get(line).startState, true);
+                if (line < lastLine && isPast(deadline))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lexes the given number of lines after the ones whose state is known, so that highlighting
+     * further down has less to do. Returns false when the state of every line is known.
+     */
+    public boolean lexAhead(CharSequence text, int lines) {
+        return lexAhead(text, lines, NO_DEADLINE);
+    }
+
+    /**
+     * Like {@link #lexAhead(CharSequence, int)}, but stops after the line that ends past the
+     * deadline.
+     */
+    public boolean lexAhead(CharSequence text, int lines, long deadline) {
+        if (this.lines.length() != text.length())
+            setText(text);
+        int lastLine = (int) Math.min((long) validLines + lines, this.lines.size()) - 1;
+        lexUpTo(text, lastLine, Integer.MAX_VALUE, deadline);
+        return validLines < this.lines.size();
+    }
+
+    /**
+     * The lines from keepFrom on keep their tokens, the ones before only their state. Returns
+     * false if the deadline passed before the last line.
+     */
+    private boolean lexUpTo(CharSequence text, int lastLine, int keepFrom, long deadline) {
+        int lineStart = -1;
+        while (validLines <= lastLine) {
+            int line = validLines;
+            int state = line == 0 ? startState : lines.get(line - 1).endState;
+            boolean lexed = lines.get(line).startState != state;
+            if (lexed) {
+                // the line changed or the state it starts in did
+                if (lineStart < 0)
+                    lineStart = lines.getStart(line);
+                lexLine(text, line, lineStart, state, line >= keepFrom);
+            }
+            if (lineStart >= 0)
+                lineStart += lines.getLength(line);
+            validLines++;
+            if (lexed && validLines <= lastLine && isPast(deadline))
+                return false;
+        }
+        return true;
+    }
+
+    private void lexLine(CharSequence text, int index, int lineStart, int state, boolean keepTokens) {
+        int lineEnd = lineStart + lines.getLength(index);
+        if (index < lines.size() - 1)
+            lineEnd--;
+
+        Line line = lines.get(index);
+        line.startState = state;
+        line.degraded = lineEnd - lineStart > maxLineLength;
+        if (line.degraded) {
+            line.endState = state;
+            line.tokens = keepTokens ? NO_TOKENS : null;
+            return;
+        }
+        lexedSize = 0;
+        line.endState = language.lexLine(text, lineStart, lineEnd, state, lexedSink);
+
+        if (!keepTokens) {
+            line.tokens = null;
+            return;
+        }
+        if (lexedSize == 0) {
+            line.tokens = NO_TOKENS;
+            return;
+        }
+        int[] tokens = Arrays.copyOf(lexed, lexedSize);
+        for (int i = 0; i < tokens.length; i += 3) {
+            tokens[i] -= lineStart;
+            tokens[i + 1] -= lineStart;
+        }
+        line.tokens = tokens;
+    }
+
+    private static boolean isPast(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+
+    private int lineOf(int position) {
+        return Math.min(lines.indexOf(position), lines.size() - 1);
+    }
+
+    private static final class Line {
+        // the state the line was lexed from, its tokens and the state it ended in
+        int startState = NOT_LEXED;
+        int endState;
+        // start, end and style of every token, relative to the start of the line; null if they
+        // were not kept, only the lines that were highlighted keep them
+        int[] tokens;
+        // too long to be lexed
+        boolean degraded;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the json of the grammars: objects become maps, arrays lists, and numbers doubles. Only
+ * what the grammars need, the platform parser is not there in unit tests.
+ */
+final class Json {
+
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object read(InputStream in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = reader.read(buffer)) > 0)
+            text.append(buffer, 0, count);
+        return parse(text.toString());
+    }
+
+    static Object parse(String text) throws IOException {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipSpaces();
+        if (json.position < text.length())
+            throw json.error("end of the text expected");
+        return value;
+    }
+
+    private Object value() throws IOException {
+        skipSpaces();
+        if (position >= text.length())
+            throw error("value expected");
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return word("true", Boolean.TRUE);
+            case 'f':
+                return word("false", Boolean.FALSE);
+            case 'n':
+                return word("null", null);
+            default:
+                return number();
+        }
+    }
+
+    private Map<String, Object> object() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipSpaces();
+        if (consume('}'))
+            return object;
+        do {
+            skipSpaces();
+            if (position >= text.length() || text.charAt(position) != '"')
+                throw error("name expected");
+            String name = string();
+            skipSpaces();
+            if (!consume(':'))
+                throw error("':' expected");
+            object.put(name, value());
+            skipSpaces();
+        } while (consume(','));
+        if (!consume('}'))
+            throw error("'}' expected");
+        return object;
+    }
+
+    private List<Object> array() throws IOException {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipSpaces();
+        if (consume(']'))
+            return array;
+        do {
+            array.add(value());
+            skipSpaces();
+        } while (consume(','));
+        if (!consume(']'))
+            throw error("']' expected");
+        return array;
+    }
+
+    private String string() throws IOException {
+        StringBuilder string = new StringBuilder();
+        position++;
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"')
+                return string.toString();
+            if (c != '\\') {
+                string.append(c);
+                continue;
+            }
+            if (position >= text.length())
+                break;
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'n':
+                    string.append('\n');
+                    break;
+                case 't':
+                    string.append('\t');
+                    break;
+                case 'r':
+                    string.append('\r');
+                    break;
+                case 'b':
+                    string.append('\b');
+                    break;
+                case 'f':
+                    string.append('\f');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length())
+                        throw error("unicode escape expected");
+                    try {
+                        string.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("unicode escape expected");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    string.append(escaped);
+                    break;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Double number() throws IOException {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0)
+            position++;
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("value expected");
+        }
+    }
+
+    private Object word(String word, Object value) throws IOException {
+        if (!text.startsWith(word, position))
+            throw error("value expected");
+        position += word.length();
+        return value;
+    }
+
+    private boolean consume(char c) {
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at " + position);
+    }
+}
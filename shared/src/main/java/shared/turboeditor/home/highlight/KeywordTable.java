@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of keywords with a perfect hash: a word is looked up by hashing its chars where they
+ * are in the text, with a single compare and no allocation.
+ * <p>
+ * The words are spread in buckets by their hash, and every bucket gets the displacement that
+ * sends its words to free slots, so no two keywords share a slot. Only ascii letters are
+ * compared ignoring case, like the CASE_INSENSITIVE flag of a pattern.
+ */
+public class KeywordTable {
+
+    private static final int MAX_DISPLACEMENT = 1 << 16;
+
+    private final char[][] slots;
+    // the keyword in the slot matches ignoring case, it is stored in lower case
+    private final boolean[] ignoreCase;
+    private final int[] displacements;
+    private int seed;
+    private int minLength = Integer.MAX_VALUE, maxLength;
+
+    public KeywordTable(String[] keywords, String[] keywordsIgnoringCase) {
+        // by the word in lower case: two keywords that only differ in case are found ignoring it
+        Map<String, String> words = new LinkedHashMap<>();
+        Map<String, Boolean> wordsIgnoringCase = new LinkedHashMap<>();
+        for (String keyword : keywords) {
+            String key = toLowerCase(keyword);
+            String word = words.get(key);
+            if (word == null) {
+                words.put(key, keyword);
+                wordsIgnoringCase.put(key, false);
+            } else if (!word.equals(keyword)) {
+                words.put(key, key);
+                wordsIgnoringCase.put(key, true);
+            }
+        }
+        for (String keyword : keywordsIgnoringCase) {
+            String key = toLowerCase(keyword);
+            words.put(key, key);
+            wordsIgnoringCase.put(key, true);
+        }
+
+        int size = Integer.highestOneBit(Math.max(words.size(), 1) * 2 - 1) * 2;
+        slots = new char[size][];
+        ignoreCase = new boolean[size];
+        displacements = new int[Math.max(size / 4, 1)];
+        for (String word : words.keySet()) {
+            minLength = Math.min(minLength, word.length());
+            maxLength = Math.max(maxLength, word.length());
+        }
+
+        while (!place(words, wordsIgnoringCase)) {
+            seed++;
+            Arrays.fill(slots, null);
+            Arrays.fill(displacements, 0);
+        }
+    }
+
+    public static KeywordTable ignoringCase(String... keywords) {
+        return new KeywordTable(new String[0], keywords);
+    }
+
+    /**
+     * True if the chars between start and end are a keyword.
+     */
+    public boolean contains(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length < minLength || length > maxLength)
+            return false;
+        int hash = hash(text, start, end, seed);
+        int slot = slotOf(hash, displacements[mix(hash) & (displacements.length - 1)]);
+        char[] keyword = slots[slot];
+        if (keyword == null || keyword.length != length)
+            return false;
+        if (ignoreCase[slot]) {
+            for (int i = 0; i < length; i++) {
+                if (toLowerCase(text.charAt(start + i)) != keyword[i])
+                    return false;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (text.charAt(start + i) != keyword[i])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean place(Map<String, String> words, Map<String, Boolean> wordsIgnoringCase) {
+        List<List<String>> buckets = new ArrayList<>();
+        for (int i = 0; i < displacements.length; i++)
+            buckets.add(new ArrayList<>());
+        for (String word : words.values()) {
+            int hash = hash(word, 0, word.length(), seed);
+            buckets.get(mix(hash) & (displacements.length - 1)).add(word);
+        }
+        Integer[] order = new Integer[buckets.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        // the biggest buckets first, while most slots are free
+        Arrays.sort(order, Comparator.comparingInt((Integer bucket) -> buckets.get(bucket).size()).reversed());
+
+        int[] bucketSlots = new int[words.size()];
+        for (int bucket : order) {
+            List<String> bucketWords = buckets.get(bucket);
+            if (bucketWords.isEmpty())
+                break;
+            int displacement = 0;
+            while (!fits(bucketWords, displacement, bucketSlots)) {
+                if (++displacement == MAX_DISPLACEMENT)
+                    return false;
+            }
+            displacements[bucket] = displacement;
+            for (int i = 0; i < bucketWords.size(); i++) {
+                String word = bucketWords.get(i);
+                slots[bucketSlots[i]] = word.toCharArray();
+                ignoreCase[bucketSlots[i]] = wordsIgnoringCase.get(toLowerCase(word));
+            }
+        }
+        return true;
+    }
+
+    private boolean fits(List<String> words, int displacement, int[] bucketSlots) {
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            int slot = slotOf(hash(word, 0, word.length(), seed), displacement);
+            if (slots[slot] != null)
+                return false;
+            for (int j = 0; j < i; j++) {
+                if (bucketSlots[j] == slot)
+                    return false;
+            }
+            bucketSlots[i] = slot;
+        }
+        return true;
+    }
+
+    private int slotOf(int hash, int displacement) {
+        return mix(hash ^ displacement * 0x9e3779b9) & (slots.length - 1);
+    }
+
+    // FNV-1a of the chars in lower case, the same for every case of a word
+    private static int hash(CharSequence text, int start, int end, int seed) {
+        int hash = 0x811c9dc5 ^ seed;
+        for (int i = start; i < end; i++)
+            hash = (hash ^ toLowerCase(text.charAt(i))) * 0x01000193;
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ hash >>> 16;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String toLowerCase(String string) {
+        char[] chars = string.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = toLowerCase(chars[i]);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import shared.turboeditor.home.texteditor.Patterns;
+
+/**
+ * The rules that color a language, applied one line at a time. A line is lexed starting from
+ * the state the previous line ended in: 0 for plain text, or the index plus one of the region,
+ * like a block comment, that is still open.
+ * <p>
+ * The rules are compiled in a single pattern, an alternation with a group for every rule, and
+ * the line is walked once. Tokens never overlap: the match that starts first wins and, among
+ * the ones that start at the same char, the rule added first. A rule can have inner rules that
+ * color parts of its matches, like the attributes of a tag.
+ * <p>
+ * A language is compiled from a grammar, see {@link Grammars}. Every thread has its own matchers,
+ * so a language can be shared.
+ */
+public class Language {
+
+    public static final int STYLE_KEYWORD = 1;
+    public static final int STYLE_ATTR = 2;
+    public static final int STYLE_ATTR_VALUE = 3;
+    public static final int STYLE_COMMENT = 4;
+    public static final int STYLE_STRING = 5;
+    public static final int STYLE_NUMBER = 6;
+    public static final int STYLE_VARIABLE = 7;
+
+    /**
+     * The lines longer than that are not lexed by default. The cost of some patterns grows
+     * faster than the length of the line, a lazy block comment that is never closed is read
+     * again from every place it could start, and the regex engine cannot be interrupted.
+     */
+    public static final int DEFAULT_MAX_LINE_LENGTH = 4096;
+
+    private static final TokenSink IGNORED_TOKENS = (start, end, style) -> {
+    };
+
+    private final List<Region> regions = new ArrayList<>();
+    private final RuleSet rules;
+
+    private Language(Rule... rules) {
+        for (Rule rule : rules) {
+            // a rule of the repository can be in the list twice
+            if (rule.region != null && rule.region.state == 0) {
+                rule.region.state = regions.size() + 1;
+                regions.add(rule.region);
+            }
+        }
+        this.rules = new RuleSet(rules);
+    }
+
+    /**
+     * The language of the files with the extension, from the default grammars.
+     */
+    public static Language forExtension(String fileExtension) {
+        return Grammars.getDefault().forExtension(fileExtension);
+    }
+
+    /**
+     * A language that colors nothing.
+     */
+    static Language plainText() {
+        return new Language();
+    }
+
+    /**
+     * Compiles a grammar read from json. Its patterns are the rules of the language in order, a
+     * rule has a match regex and a style, and can have:
+     * <ul>
+     * <li>patterns, the inner rules that color parts of its matches</li>
+     * <li>keywords and keywordsIgnoringCase, the words that are colored among its matches</li>
+     * <li>begin and end, the region its matches can open, the match runs to the end of the line
+     * when the region is not closed</li>
+     * </ul>
+     * A rule can instead include one of the repository of the grammar by "#name", or use a
+     * builtin pattern of the platform in place of its match.
+     */
+    static Language compile(Map<String, Object> grammar) throws IOException {
+        Map<String, Object> repository = grammar.containsKey("repository")
+                ? objectOf(grammar, "repository") : Collections.emptyMap();
+        return new Language(rulesOf(listOf(grammar, "patterns"), repository, new HashMap<>()));
+    }
+
+    private static Rule[] rulesOf(List<Object> patterns, Map<String, Object> repository,
+                                  Map<String, Rule> included) throws IOException {
+        Rule[] rules = new Rule[patterns.size()];
+        for (int i = 0; i < rules.length; i++) {
+            if (!(patterns.get(i) instanceof Map))
+                throw new IOException("rule expected");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> pattern = (Map<String, Object>) patterns.get(i);
+            rules[i] = ruleOf(pattern, repository, included);
+        }
+        return rules;
+    }
+
+    private static Rule ruleOf(Map<String, Object> pattern, Map<String, Object> repository,
+                               Map<String, Rule> included) throws IOException {
+        if (pattern.containsKey("include")) {
+            String name = stringOf(pattern, "include");
+            if (!name.startsWith("#") || !repository.containsKey(name.substring(1)))
+                throw new IOException("unknown rule " + name);
+            // a rule included in many places is compiled once
+            if (included.containsKey(name)) {
+                Rule rule = included.get(name);
+                if (rule == null)
+                    throw new IOException("rule " + name + " includes itself");
+                return rule;
+            }
+            included.put(name, null);
+            Rule rule = ruleOf(objectOf(repository, name.substring(1)), repository, included);
+            included.put(name, rule);
+            return rule;
+        }
+
+        Pattern regex = null;
+        if (pattern.containsKey("builtin"))
+            regex = builtinPattern(stringOf(pattern, "builtin"));
+        // the match of a builtin is used where the platform does not have it
+        if (regex == null) {
+            try {
+                regex = Pattern.compile(stringOf(pattern, "match"));
+            } catch (PatternSyntaxException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        int style = styleOf(stringOf(pattern, "style"));
+
+        Region region = null;
+        if (pattern.containsKey("begin"))
+            region = new Region(stringOf(pattern, "begin"), stringOf(pattern, "end"), style);
+        RuleSet innerRules = null;
+        if (pattern.containsKey("patterns"))
+            innerRules = new RuleSet(rulesOf(listOf(pattern, "patterns"), repository, included));
+        KeywordTable keywords = null;
+        if (pattern.containsKey("keywords") || pattern.containsKey("keywordsIgnoringCase")) {
+            // a word with a separator, like a qualified name, can also be a keyword up to it
+            keywords = new KeywordTable(wordsOf(pattern, "keywords"), wordsOf(pattern, "keywordsIgnoringCase"));
+        }
+        return new Rule(regex, style, region, innerRules, keywords);
+    }
+
+    /**
+     * The pattern of the platform, null if it does not have it.
+     */
+    private static Pattern builtinPattern(String name) throws IOException {
+        switch (name) {
+            case "link":
+                return Patterns.LINK;
+            default:
+                throw new IOException("unknown pattern " + name);
+        }
+    }
+
+    private static int styleOf(String name) throws IOException {
+        switch (name) {
+            case "keyword":
+                return STYLE_KEYWORD;
+            case "attr":
+                return STYLE_ATTR;
+            case "attrValue":
+                return STYLE_ATTR_VALUE;
+            case "comment":
+                return STYLE_COMMENT;
+            case "string":
+                return STYLE_STRING;
+            case "number":
+                return STYLE_NUMBER;
+            case "variable":
+                return STYLE_VARIABLE;
+            default:
+                throw new IOException("unknown style " + name);
+        }
+    }
+
+    private static String[] wordsOf(Map<String, Object> pattern, String key) throws IOException {
+        if (!pattern.containsKey(key))
+            return new String[0];
+        List<Object> list = listOf(pattern, key);
+        String[] words = new String[list.size()];
+        for (int i = 0; i < words.length; i++) {
+            if (!(list.get(i) instanceof String))
+                throw new IOException(key + ": word expected");
+            words[i] = (String) list.get(i);
+        }
+        return words;
+    }
+
+    private static String stringOf(Map<String, Object> object, String key) throws IOException {
+        Object value = object.get(key);
+        if (!(value instanceof String))
+            throw new IOException(key + ": string expected");
+        return (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> listOf(Map<String, Object> object, String key) throws IOException {
+        Object value = object.get(key);
+        if (!(value instanceof List))
+            throw new IOException(key + ": array expected");
+        return (List<Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> objectOf(Map<String, Object> object, String key) throws IOException {
+        Object value = object.get(key);
+        if (!(value instanceof Map))
+            throw new IOException(key + ": object expected");
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Sends the tokens of the line between start and end, its new line excluded, to the sink
+     * and returns the state the line ends in. The tokens are sent in order and do not overlap.
+     */
+    public int lexLine(CharSequence text, int start, int end, int state, TokenSink sink) {
+        int from = start;
+        if (state != 0) {
+            Region region = regions.get(state - 1);
+            int close = indexOf(text, region.close, start, end);
+            if (close < 0) {
+                if (end > start)
+                    sink.token(start, end, region.style);
+                return state;
+            }
+            from = close + region.close.length();
+            sink.token(start, from, region.style);
+        }
+        return rules.lex(text, from, end, 0, sink);
+    }
+
+    /**
+     * Lexes the lines between start and end from the given state and returns the state the last
+     * one ends in, the tokens are dropped.
+     */
+    public int lexLines(CharSequence text, int start, int end, int state) {
+        return lexLines(text, start, end, state, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #lexLines(CharSequence, int, int, int)}, but the lines longer than the maximum
+     * are not lexed: they are plain text, and end in the state they start in.
+     */
+    public int lexLines(CharSequence text, int start, int end, int state, int maxLineLength) {
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                if (i - lineStart <= maxLineLength)
+                    state = lexLine(text, lineStart, i, state, IGNORED_TOKENS);
+                lineStart = i + 1;
+            }
+        }
+        if (end - lineStart > maxLineLength)
+            return state;
+        return lexLine(text, lineStart, end, state, IGNORED_TOKENS);
+    }
+
+    private static int indexOf(CharSequence text, String string, int from, int to) {
+        char first = string.charAt(0);
+        int last = to - string.length();
+        for (int i = from; i <= last; i++) {
+            if (text.charAt(i) == first && startsWith(text, i, string))
+                return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, int index, String string) {
+        if (index < 0 || index + string.length() > text.length())
+            return false;
+        for (int i = 0; i < string.length(); i++) {
+            if (text.charAt(index + i) != string.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static final class Rule {
+        final Pattern pattern;
+        final int style;
+        final Region region;
+        final RuleSet innerRules;
+        final KeywordTable keywords;
+
+        Rule(Pattern pattern, int style, Region region, RuleSet innerRules, KeywordTable keywords) {
+            this.pattern = pattern;
+            this.style = style;
+            this.region = region;
+            this.innerRules = innerRules;
+            this.keywords = keywords;
+        }
+    }
+
+    /**
+     * Rules compiled in one pattern, the group of every rule tells which one matched.
+     */
+    private static final class RuleSet {
+        final Rule[] rules;
+        final int[] groups;
+        final Pattern pattern;
+        final ThreadLocal<Matcher> matchers;
+
+        RuleSet(Rule[] rules) {
+            this.rules = rules;
+            groups = new int[rules.length];
+            StringBuilder regex = new StringBuilder();
+            int group = 1;
+            for (int i = 0; i < rules.length; i++) {
+                Pattern pattern = rules[i].pattern;
+                if (i > 0)
+                    regex.append('|');
+                // the flags of the pattern only apply to its group
+                regex.append('(').append(flagsOf(pattern)).append(pattern.pattern()).append(')');
+                groups[i] = group;
+                group += 1 + pattern.matcher("").groupCount();
+            }
+            pattern = Pattern.compile(regex.toString());
+            matchers = new ThreadLocal<Matcher>() {
+                @Override
+                protected Matcher initialValue() {
+                    // lookbehinds like \b see the text before the line
+                    return pattern.matcher("").useTransparentBounds(true);
+                }
+            };
+        }
+
+        /**
+         * Lexes the text between from and to, what no rule matches gets the gap style unless
+         * it is 0. Returns the state of the region left open, or 0.
+         */
+        int lex(CharSequence text, int from, int to, int gapStyle, TokenSink sink) {
+            if (rules.length == 0) {
+                if (gapStyle != 0 && from < to)
+                    sink.token(from, to, gapStyle);
+                return 0;
+            }
+            Matcher matcher = matchers.get().reset(text).region(from, to);
+            int state = 0;
+            int position = from;
+            while (matcher.find()) {
+                int start = matcher.start();
+                int end = matcher.end();
+                if (start == end)
+                    continue;
+                Rule rule = ruleOf(matcher);
+                if (rule.keywords != null && !rule.keywords.contains(text, start, end)) {
+                    int wordEnd = wordEnd(text, start, end);
+                    if (wordEnd == end)
+                        continue;
+                    // the rest of the name is lexed again
+                    matcher.region(wordEnd, to);
+                    if (!rule.keywords.contains(text, start, wordEnd))
+                        continue;
+                    end = wordEnd;
+                }
+                if (gapStyle != 0 && position < start)
+                    sink.token(position, start, gapStyle);
+                if (rule.innerRules != null)
+                    rule.innerRules.lex(text, start, end, rule.style, sink);
+                else
+                    sink.token(start, end, rule.style);
+                if (rule.region != null && rule.region.isOpen(text, start, end))
+                    state = rule.region.state;
+                position = end;
+            }
+            if (gapStyle != 0 && position < to)
+                sink.token(position, to, gapStyle);
+            return state;
+        }
+
+        private static int wordEnd(CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_'))
+                    return i;
+            }
+            return end;
+        }
+
+        private Rule ruleOf(Matcher matcher) {
+            for (int i = 0; i < rules.length - 1; i++) {
+                if (matcher.start(groups[i]) >= 0)
+                    return rules[i];
+            }
+            return rules[rules.length - 1];
+        }
+
+        private static String flagsOf(Pattern pattern) {
+            int flags = pattern.flags();
+            if (flags == 0)
+                return "";
+            StringBuilder inline = new StringBuilder("(?");
+            if ((flags & Pattern.CASE_INSENSITIVE) != 0)
+                inline.append('i');
+            if ((flags & Pattern.UNICODE_CASE) != 0)
+                inline.append('u');
+            if ((flags & Pattern.DOTALL) != 0)
+                inline.append('s');
+            if ((flags & Pattern.MULTILINE) != 0)
+                inline.append('m');
+            if ((flags & Pattern.COMMENTS) != 0)
+                inline.append('x');
+            return inline.append(')').toString();
+        }
+    }
+
+    private static final class Region {
+        final String open, close;
+        final int style;
+        int state;
+
+        Region(String open, String close, int style) {
+            this.open = open;
+            this.close = close;
+            this.style = style;
+        }
+
+        /**
+         * True if the match opens the region without closing it.
+         */
+        boolean isOpen(CharSequence text, int start, int end) {
+            if (!startsWith(text, start, open))
+                return false;
+            return end - start < open.length() + close.length()
+                    || !startsWith(text, end - close.length(), close);
+        }
+    }
+}
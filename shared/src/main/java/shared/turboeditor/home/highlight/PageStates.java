@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.util.Arrays;
+
+import shared.turboeditor.home.texteditor.DocumentSnapshot;
+
+/**
+ * The state the lexer is in at the start of every page of a document, so that a page is
+ * colored as if the pages before it were there. The pages are lexed one after the other from
+ * the first, only as far as they are needed.
+ */
+public class PageStates {
+
+    private final Language language;
+    private int[] states = new int[16];
+    // the state of the pages before it is known, the first page starts outside of everything
+    private int knownPages = 1;
+    private int maxLineLength = Language.DEFAULT_MAX_LINE_LENGTH;
+
+    public PageStates(Language language) {
+        this.language = language;
+    }
+
+    /**
+     * The lines longer than that are not lexed, like the ones of {@link IncrementalHighlighter}.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        if (maxLineLength == this.maxLineLength)
+            return;
+        this.maxLineLength = maxLineLength;
+        knownPages = 1;
+    }
+
+    /**
+     * The state the page starts in, -1 if the pages before it were not lexed yet.
+     */
+    public int getState(int page) {
+        return page < knownPages ? states[page] : -1;
+    }
+
+    /**
+     * The text of the page changed or it moved, the pages after it may start in another state.
+     */
+    public void invalidateFrom(int page) {
+        if (page < knownPages - 1)
+            knownPages = Math.max(1, page + 1);
+    }
+
+    /**
+     * Lexes the first page whose next page has an unknown state. Returns false if there is no
+     * such page in the document.
+     */
+    public boolean lexNextPage(DocumentSnapshot document) {
+        int page = knownPages - 1;
+        if (page + 1 >= document.getPageCount())
+            return false;
+
+        int state = language.lexLines(document, document.getPageStart(page), document.getPageEnd(page),
+                states[page], maxLineLength);
+        if (knownPages == states.length)
+            states = Arrays.copyOf(states, states.length * 2);
+        states[knownPages++] = state;
+        return true;
+    }
+}
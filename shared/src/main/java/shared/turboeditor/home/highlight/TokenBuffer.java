@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.highlight;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of a highlight pass packed as start, end and style triples. It is cleared and
+ * filled again by the next pass, it only grows when a pass has more tokens than any before.
+ */
+public class TokenBuffer implements TokenSink {
+
+    private int[] tokens;
+    private int size;
+
+    public TokenBuffer() {
+        this(64);
+    }
+
+    public TokenBuffer(int capacity) {
+        tokens = new int[Math.max(capacity, 1) * 3];
+    }
+
+    @Override
+    public void token(int start, int end, int style) {
+        if (size * 3 == tokens.length)
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        tokens[size * 3] = start;
+        tokens[size * 3 + 1] = end;
+        tokens[size * 3 + 2] = style;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int index) {
+        return tokens[index * 3];
+    }
+
+    public int end(int index) {
+        return tokens[index * 3 + 1];
+    }
+
+    public int style(int index) {
+        return tokens[index * 3 + 2];
+    }
+
+    public void setStyle(int index, int style) {
+        tokens[index * 3 + 2] = style;
+    }
+
+    /**
+     * Makes this buffer a copy of the other one.
+     */
+    public void set(TokenBuffer other) {
+        if (tokens.length < other.size * 3)
+            tokens = new int[other.tokens.length];
+        System.arraycopy(other.tokens, 0, tokens, 0, other.size * 3);
+        size = other.size;
+    }
+
+    /**
+     * The index of the first token that ends after the position, or the size. The tokens must
+     * be sorted and not overlap.
+     */
+    public int indexAfter(int position) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens[middle * 3 + 1] <= position)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Moves the tokens like the text they color: count chars replaced the before ones at start.
+     * The inserted chars are not colored and the tokens left empty are dropped.
+     */
+    public void onTextChanged(int start, int before, int count) {
+        int removedEnd = start + before;
+        int delta = count - before;
+        // the tokens that end before the change stay where they are
+        int kept = indexAfter(start);
+        for (int i = kept; i < size; i++) {
+            int tokenStart = tokens[i * 3];
+            int tokenEnd = tokens[i * 3 + 1];
+            if (tokenStart >= removedEnd)
+                tokenStart += delta;
+            else if (tokenStart >= start)
+                tokenStart = start + count;
+            if (tokenEnd > removedEnd)
+                tokenEnd += delta;
+            else if (tokenEnd > start)
+                tokenEnd = start;
+            if (tokenStart >= tokenEnd)
+                continue;
+            tokens[kept * 3] = tokenStart;
+            tokens[kept * 3 + 1] = tokenEnd;
+            tokens[kept * 3 + 2] = tokens[i * 3 + 2];
+            kept++;
+        }
+        size = kept;
+    }
+}
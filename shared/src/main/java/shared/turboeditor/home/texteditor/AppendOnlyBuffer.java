@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import android.text.GetChars;
+
+import java.util.Arrays;
+
+/**
+ * Chars that can only be appended, kept in chunks of a fixed size that never move. A chunk is
+ * not written anymore once it is full and the length is written after the chars, so another
+ * thread that reads the length sees every char below it while the buffer keeps growing.
+ */
+public final class AppendOnlyBuffer implements CharSequence, GetChars {
+
+    private static final int CHUNK_SHIFT = 13;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // replaced by a bigger copy when it is full, the chunks in it are the same
+    private char[][] chunks = new char[16][];
+    private volatile int length;
+
+    /**
+     * Only one thread appends.
+     */
+    public void append(char c) {
+        int length = this.length;
+        chunkOf(length)[length & CHUNK_MASK] = c;
+        this.length = length + 1;
+    }
+
+    public void append(CharSequence text) {
+        append(text, 0, text.length());
+    }
+
+    public void append(CharSequence text, int start, int end) {
+        int length = this.length;
+        while (start < end) {
+            int offset = length & CHUNK_MASK;
+            int count = Math.min(end - start, CHUNK_SIZE - offset);
+            PieceTable.getChars(text, start, start + count, chunkOf(length), offset);
+            start += count;
+            length += count;
+        }
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        int length = this.length;
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destStart) {
+        int length = this.length;
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        char[][] chunks = this.chunks;
+        while (start < end) {
+            int offset = start & CHUNK_MASK;
+            int count = Math.min(end - start, CHUNK_SIZE - offset);
+            System.arraycopy(chunks[start >>> CHUNK_SHIFT], offset, dest, destStart, count);
+            start += count;
+            destStart += count;
+        }
+    }
+
+    /**
+     * Appends the chars in [start, end) to the builder, a chunk at a time.
+     */
+    public void appendTo(StringBuilder stringBuilder, int start, int end) {
+        int length = this.length;
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        char[][] chunks = this.chunks;
+        while (start < end) {
+            int offset = start & CHUNK_MASK;
+            int count = Math.min(end - start, CHUNK_SIZE - offset);
+            stringBuilder.append(chunks[start >>> CHUNK_SHIFT], offset, count);
+            start += count;
+        }
+    }
+
+    /**
+     * A copy of the range, the buffer does not keep views of itself.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+
+    private char[] chunkOf(int index) {
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunk == chunks.length)
+            chunks = Arrays.copyOf(chunks, chunk * 2);
+        char[] chars = chunks[chunk];
+        if (chars == null) {
+            chars = new char[CHUNK_SIZE];
+            chunks[chunk] = chars;
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+/**
+ * Converts between the positions of a document in O(log n): the offsets of chars, the lines
+ * and the rows the editor wraps them in. Offsets, lines and rows of the page shown count from
+ * its start, the ones of the document from the start of the first page, all from 0.
+ * <p>
+ * The page shown may be edited since it was last saved in the page system, its lines and rows
+ * are the ones of the editor and the pages after it are moved by what the edits added.
+ */
+public class DocumentPositions {
+
+    /**
+     * The rows of the text of the page shown, like the lines of a {@link android.text.Layout}.
+     */
+    public interface Rows {
+        int getLineForOffset(int offset);
+
+        int getLineStart(int row);
+    }
+
+    private final PageSystem pageSystem;
+    private final LineMap lineMap;
+    private final Rows rows;
+
+    /**
+     * @param lineMap the lines of the page shown, the current page of the page system
+     */
+    public DocumentPositions(PageSystem pageSystem, LineMap lineMap, Rows rows) {
+        this.pageSystem = pageSystem;
+        this.lineMap = lineMap;
+        this.rows = rows;
+    }
+
+    public int getLineOfOffset(int offset) {
+        return lineMap.getLineOfOffset(offset);
+    }
+
+    public int getLineStart(int line) {
+        return lineMap.getLineStart(line);
+    }
+
+    public int getRowOfOffset(int offset) {
+        return rows.getLineForOffset(offset);
+    }
+
+    /**
+     * The row the line starts on.
+     */
+    public int getRowOfLine(int line) {
+        return rows.getLineForOffset(lineMap.getLineStart(line));
+    }
+
+    public int getLineOfRow(int row) {
+        return lineMap.getLineOfOffset(rows.getLineStart(row));
+    }
+
+    /**
+     * True if the row is the first one of its line, the others are the parts of a line that
+     * wraps.
+     */
+    public boolean isLineStart(int row) {
+        int rowStart = rows.getLineStart(row);
+        return rowStart == lineMap.getLineStart(lineMap.getLineOfOffset(rowStart));
+    }
+
+    public int getDocumentLineCount() {
+        return pageSystem.getLineCount() + addedLines();
+    }
+
+    /**
+     * The line of the document the page starts with.
+     */
+    public int getStartingLine(int page) {
+        int line = pageSystem.getStartingLine(page);
+        return page > pageSystem.getCurrentPage() ? line + addedLines() : line;
+    }
+
+    public int getPageOfDocumentLine(int documentLine) {
+        int current = pageSystem.getCurrentPage();
+        int start = pageSystem.getStartingLine(current);
+        if (documentLine < start)
+            return pageSystem.getPageOfLine(documentLine);
+        if (documentLine < start + lineMap.getLineCount())
+            return current;
+        return pageSystem.getPageOfLine(documentLine - addedLines());
+    }
+
+    /**
+     * The line of the page shown, or -1 if the line of the document is in another page.
+     */
+    public int getLineOfDocumentLine(int documentLine) {
+        int line = documentLine - pageSystem.getStartingLine(pageSystem.getCurrentPage());
+        return line >= 0 && line < lineMap.getLineCount() ? line : -1;
+    }
+
+    public int getDocumentLine(int line) {
+        return pageSystem.getStartingLine(pageSystem.getCurrentPage()) + line;
+    }
+
+    /**
+     * The offset in the document of the start of the page.
+     */
+    public int getPageStart(int page) {
+        int start = pageSystem.getPageStart(page);
+        return page > pageSystem.getCurrentPage() ? start + addedChars() : start;
+    }
+
+    public int getPageOfDocumentOffset(int documentOffset) {
+        int current = pageSystem.getCurrentPage();
+        int start = pageSystem.getPageStart(current);
+        if (documentOffset < start)
+            return pageSystem.getPageOfOffset(documentOffset);
+        if (documentOffset <= start + lineMap.length())
+            return current;
+        return pageSystem.getPageOfOffset(documentOffset - addedChars());
+    }
+
+    public int getDocumentOffset(int offset) {
+        return pageSystem.getPageStart(pageSystem.getCurrentPage()) + offset;
+    }
+
+    /**
+     * The lines the edits of the page shown added since it was saved.
+     */
+    private int addedLines() {
+        return lineMap.getLineCount() - pageSystem.getLineCount(pageSystem.getCurrentPage());
+    }
+
+    private int addedChars() {
+        return lineMap.length() - pageSystem.getPageLength(pageSystem.getCurrentPage());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import android.text.GetChars;
+
+/**
+ * The text of a {@link PageSystem} at the time it was saved, with the pages that changed since
+ * the file was read or last saved. It does not change while the document is edited, so it can
+ * be written on another thread.
+ */
+public class DocumentSnapshot implements CharSequence, GetChars {
+
+    private final PageSystem pageSystem;
+    private final PieceTable.Snapshot text;
+    // char offset of every page, the one after the last page is the length plus one
+    private final int[] pageStarts;
+    private final int[] pageLines;
+    private final boolean[] dirtyPages;
+    private final PageTable savedPages;
+    private final boolean mapped;
+    private final boolean byteOrderMark;
+    private final int version;
+    private final int pagesVersion;
+
+    DocumentSnapshot(PageSystem pageSystem, PieceTable.Snapshot text, int[] pageStarts, int[] pageLines,
+                     boolean[] dirtyPages, PageTable savedPages, boolean mapped, boolean byteOrderMark,
+                     int version, int pagesVersion) {
+        this.pageSystem = pageSystem;
+        this.text = text;
+        this.pageStarts = pageStarts;
+        this.pageLines = pageLines;
+        this.dirtyPages = dirtyPages;
+        this.savedPages = savedPages;
+        this.mapped = mapped;
+        this.byteOrderMark = byteOrderMark;
+        this.version = version;
+        this.pagesVersion = pagesVersion;
+    }
+
+    public int getPageCount() {
+        return dirtyPages.length;
+    }
+
+    public int getPageStart(int page) {
+        return pageStarts[page];
+    }
+
+    public int getPageEnd(int page) {
+        return pageStarts[page + 1] - 1;
+    }
+
+    public int getNewLines(int page) {
+        return pageLines[page] - 1;
+    }
+
+    public boolean isDirty(int page) {
+        return dirtyPages[page];
+    }
+
+    /**
+     * The first page changed since the pages were read or saved, -1 if none changed.
+     */
+    public int getFirstDirtyPage() {
+        for (int i = 0; i < dirtyPages.length; i++) {
+            if (dirtyPages[i])
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Where the pages are in the file they were read from or last saved to, null if unknown.
+     * When it is not null it has one entry for every page.
+     */
+    public PageTable getSavedPages() {
+        return savedPages;
+    }
+
+    /**
+     * The unchanged pages are read from the file, it must not be overwritten but replaced.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * The file of a mapped document starts with a byte order mark, it was skipped when the file
+     * was read so it is not in the text.
+     */
+    public boolean hasByteOrderMark() {
+        return byteOrderMark;
+    }
+
+    PageSystem getPageSystem() {
+        return pageSystem;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    int getPagesVersion() {
+        return pagesVersion;
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text.charAt(index);
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destStart) {
+        text.getChars(start, end, dest, destStart);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import java.util.Arrays;
+
+/**
+ * A growable Fenwick (binary indexed) tree of non negative ints. Updates, prefix sums and
+ * searches by prefix sum cost O(log n) and never allocate.
+ */
+public class FenwickTree {
+
+    private int[] values;
+    private int[] tree; // 1-based
+    private int size;
+
+    public FenwickTree() {
+        this(16);
+    }
+
+    public FenwickTree(int capacity) {
+        capacity = Math.max(capacity, 1);
+        values = new int[capacity];
+        tree = new int[capacity + 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        add(index, value - get(index));
+    }
+
+    public void add(int index, int delta) {
+        checkIndex(index);
+        if (delta == 0)
+            return;
+        values[index] += delta;
+        for (int i = index + 1; i <= size; i += i & -i)
+            tree[i] += delta;
+    }
+
+    public void append(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            tree = Arrays.copyOf(tree, size * 2 + 1);
+        }
+        int i = size + 1;
+        values[size] = value;
+        // the new node covers (i - lowbit(i), i]
+        tree[i] = value + prefixSum(size) - prefixSum(i - (i & -i));
+        size++;
+    }
+
+    /**
+     * Replaces count values from the index with the given ones. It costs O(n), the tree is
+     * built again.
+     */
+    public void splice(int index, int count, int... newValues) {
+        if (index < 0 || count < 0 || index + count > size)
+            throw new IndexOutOfBoundsException("index: " + index + ", count: " + count + ", size: " + size);
+        int newSize = size - count + newValues.length;
+        int[] newArray = new int[Math.max(values.length, newSize)];
+        System.arraycopy(values, 0, newArray, 0, index);
+        System.arraycopy(newValues, 0, newArray, index, newValues.length);
+        System.arraycopy(values, index + count, newArray, index + newValues.length, size - index - count);
+        values = newArray;
+        size = newSize;
+
+        tree = new int[values.length + 1];
+        for (int i = 1; i <= size; i++) {
+            tree[i] += values[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= size)
+                tree[parent] += tree[i];
+        }
+    }
+
+    /**
+     * Sum of the values in [0, end).
+     */
+    public int prefixSum(int end) {
+        if (end < 0 || end > size)
+            throw new IndexOutOfBoundsException("end: " + end + ", size: " + size);
+        int sum = 0;
+        for (int i = end; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    public int sum() {
+        return prefixSum(size);
+    }
+
+    /**
+     * Returns the index whose range contains the position, that is the first index for which
+     * prefixSum(index + 1) > position. Returns size() if the position is past the total.
+     */
+    public int indexOf(int position) {
+        int index = 0;
+        int step = Integer.highestOneBit(Math.max(size, 1));
+        for (; step > 0; step >>= 1) {
+            int next = index + step;
+            if (next <= size && tree[next] <= position) {
+                index = next;
+                position -= tree[next];
+            }
+        }
+        return index;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+    }
+}
@@ -30,13 +30,22 @@ import java.nio.charset.Charset;
 
 public class FileUtils {
     public static String getDetectedEncoding(InputStream is) {
+        return getDetectedEncoding(is, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #getDetectedEncoding(InputStream)} but gives up after reading maxBytes.
+     */
+    public static String getDetectedEncoding(InputStream is, long maxBytes) {
         String encoding = null;
         try {
             UniversalDetector detector = new UniversalDetector(null);
             byte[] buf = new byte[4096];
             int nread;
-            while ((nread = is.read(buf)) > 0 && !detector.isDone()) {
+            long read = 0;
+            while (read < maxBytes && (nread = is.read(buf)) > 0 && !detector.isDone()) {
                 detector.handleData(buf, 0, nread);
+                read += nread;
             }
             detector.dataEnd();
             encoding = detector.getDetectedCharset();
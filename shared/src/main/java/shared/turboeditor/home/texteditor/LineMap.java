@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import java.util.Arrays;
+
+/**
+ * The lines of the text of the editor, kept up to date from the edits a TextWatcher sees. A
+ * line is found from an offset and an offset from a line in O(log n), and an edit costs
+ * O(log n) plus the lines it adds, the lines after it are not moved. The rows of the layout
+ * are found from the offsets where they start.
+ */
+public class LineMap {
+
+    // the length of every line, its new line included
+    private LineTree<Void> lineLengths;
+
+    public LineMap() {
+        setText("");
+    }
+
+    /**
+     * Forgets the lines, they are counted again in the whole text.
+     */
+    public void setText(CharSequence text) {
+        lineLengths = new LineTree<>();
+        int lineStart = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                lineLengths.append(i + 1 - lineStart, null);
+                lineStart = i + 1;
+            }
+        }
+        lineLengths.append(length - lineStart, null);
+    }
+
+    /**
+     * Tells that the chars from start to start plus before were replaced with count chars, the
+     * text is read as it is after the change, like in {@link android.text.TextWatcher#onTextChanged}.
+     */
+    public void onTextChanged(CharSequence text, int start, int before, int count) {
+        int firstLine = getLineOfOffset(start);
+        int lastLine = getLineOfOffset(start + before);
+        if (firstLine == lastLine && indexOfNewLine(text, start, start + count) < 0) {
+            // typing in a line
+            lineLengths.addLength(firstLine, count - before);
+            return;
+        }
+        int rangeStart = lineLengths.getStart(firstLine);
+        int rangeEnd = lineLengths.getStart(lastLine + 1);
+
+        // the lines of the changed range as they are now: what is left of the first and the
+        // last line around the inserted text
+        int[] lengths = new int[lastLine - firstLine + 2];
+        int lines = 0;
+        int lineStart = rangeStart;
+        for (int i = indexOfNewLine(text, start, start + count); i >= 0;
+             i = indexOfNewLine(text, i + 1, start + count)) {
+            if (lines == lengths.length)
+                lengths = Arrays.copyOf(lengths, lines * 2);
+            lengths[lines++] = i + 1 - lineStart;
+            lineStart = i + 1;
+        }
+        // the rest of the last line ends with its new line, or it is the end of the text
+        if (lines == lengths.length)
+            lengths = Arrays.copyOf(lengths, lines + 1);
+        lengths[lines++] = rangeEnd - before + count - lineStart;
+
+        int oldLines = lastLine - firstLine + 1;
+        if (lines == oldLines) {
+            for (int i = 0; i < lines; i++)
+                lineLengths.setLength(firstLine + i, lengths[i]);
+        } else {
+            lineLengths.splice(firstLine, oldLines, lengths, lines);
+        }
+    }
+
+    public int getLineCount() {
+        return lineLengths.size();
+    }
+
+    /**
+     * The length of the text the lines were counted in.
+     */
+    public int length() {
+        return lineLengths.length();
+    }
+
+    /**
+     * The line of the char at the offset, counted from 0. The end of the text is in the last
+     * line.
+     */
+    public int getLineOfOffset(int offset) {
+        return Math.min(lineLengths.indexOf(offset), lineLengths.size() - 1);
+    }
+
+    public int getLineStart(int line) {
+        return lineLengths.getStart(line);
+    }
+
+    /**
+     * The offset of the end of the line, before its new line.
+     */
+    public int getLineEnd(int line) {
+        int end = lineLengths.getStart(line + 1);
+        return line < lineLengths.size() - 1 ? end - 1 : end;
+    }
+
+    private static int indexOfNewLine(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n')
+                return i;
+        }
+        return -1;
+    }
+}
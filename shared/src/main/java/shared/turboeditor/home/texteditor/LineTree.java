@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+/**
+ * The lines of a text as a sequence of lengths, each with a value. The lines are kept in a
+ * treap ordered by their index, like the pieces of {@link PieceTable}: finding a line from an
+ * offset or an offset from a line, changing the length of a line and replacing some lines with
+ * others cost O(log n), the lines after them are not moved. Reads and length changes never
+ * allocate.
+ */
+public class LineTree<T> {
+
+    private Node<T> root;
+
+    // results of split(), kept in fields so that splitting does not allocate
+    private Node<T> splitLeft, splitRight;
+
+    private int seed = 0x2545F491;
+
+    public int size() {
+        return count(root);
+    }
+
+    /**
+     * The sum of the lengths of all the lines.
+     */
+    public int length() {
+        return length(root);
+    }
+
+    public int getLength(int index) {
+        return node(index).length;
+    }
+
+    public void setLength(int index, int length) {
+        addLength(index, length - getLength(index));
+    }
+
+    public void addLength(int index, int delta) {
+        checkIndex(index);
+        if (delta == 0)
+            return;
+        Node<T> node = root;
+        while (true) {
+            node.subtreeLength += delta;
+            int leftCount = count(node.left);
+            if (index < leftCount) {
+                node = node.left;
+            } else if (index == leftCount) {
+                node.length += delta;
+                return;
+            } else {
+                index -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    public T get(int index) {
+        return node(index).value;
+    }
+
+    public void set(int index, T value) {
+        node(index).value = value;
+    }
+
+    public void append(int length, T value) {
+        root = merge(root, newNode(length, value));
+    }
+
+    /**
+     * Replaces count lines from the index with lines of the given lengths, taken from the
+     * first newCount ones of the array. The new lines have no value.
+     */
+    public void splice(int index, int count, int[] lengths, int newCount) {
+        int size = size();
+        if (index < 0 || count < 0 || index + count > size)
+            throw new IndexOutOfBoundsException("index: " + index + ", count: " + count + ", size: " + size);
+        split(root, index);
+        Node<T> left = splitLeft;
+        split(splitRight, count);
+        Node<T> right = splitRight;
+        for (int i = 0; i < newCount; i++)
+            left = merge(left, newNode(lengths[i], null));
+        root = merge(left, right);
+    }
+
+    /**
+     * Sum of the lengths of the lines in [0, end), the offset where the line end starts.
+     */
+    public int getStart(int end) {
+        int size = size();
+        if (end < 0 || end > size)
+            throw new IndexOutOfBoundsException("end: " + end + ", size: " + size);
+        int start = 0;
+        Node<T> node = root;
+        while (node != null) {
+            int leftCount = count(node.left);
+            if (end <= leftCount) {
+                node = node.left;
+            } else {
+                start += length(node.left) + node.length;
+                end -= leftCount + 1;
+                node = node.right;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Returns the line that contains the offset, that is the first index for which
+     * getStart(index + 1) > offset. Returns size() if the offset is past the length.
+     */
+    public int indexOf(int offset) {
+        int index = 0;
+        Node<T> node = root;
+        while (node != null) {
+            int leftLength = length(node.left);
+            if (offset < leftLength) {
+                node = node.left;
+            } else if (offset < leftLength + node.length) {
+                return index + count(node.left);
+            } else {
+                offset -= leftLength + node.length;
+                index += count(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return index;
+    }
+
+    private Node<T> node(int index) {
+        checkIndex(index);
+        Node<T> node = root;
+        while (true) {
+            int leftCount = count(node.left);
+            if (index < leftCount) {
+                node = node.left;
+            } else if (index == leftCount) {
+                return node;
+            } else {
+                index -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Splits the tree in its first count lines (splitLeft) and the ones after them (splitRight).
+     */
+    private void split(Node<T> node, int count) {
+        if (node == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        int leftCount = count(node.left);
+        if (count <= leftCount) {
+            split(node.left, count);
+            node.left = splitRight;
+            update(node);
+            splitRight = node;
+        } else {
+            split(node.right, count - leftCount - 1);
+            node.right = splitLeft;
+            update(node);
+            splitLeft = node;
+        }
+    }
+
+    private Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    private Node<T> newNode(int length, T value) {
+        // xorshift, we only need the priorities to be well spread
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        Node<T> node = new Node<>(length, value, seed);
+        update(node);
+        return node;
+    }
+
+    private void checkIndex(int index) {
+        int size = size();
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+    }
+
+    private static int count(Node<?> node) {
+        return node == null ? 0 : node.subtreeCount;
+    }
+
+    private static int length(Node<?> node) {
+        return node == null ? 0 : node.subtreeLength;
+    }
+
+    private static void update(Node<?> node) {
+        node.subtreeCount = count(node.left) + 1 + count(node.right);
+        node.subtreeLength = length(node.left) + node.length + length(node.right);
+    }
+
+    private static final class Node<T> {
+        final int priority;
+        int length;
+        T value;
+        int subtreeCount;
+        int subtreeLength;
+        Node<T> left, right;
+
+        Node(int length, T value, int priority) {
+            this.length = length;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+}
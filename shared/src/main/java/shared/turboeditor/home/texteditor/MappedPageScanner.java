@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+
+/**
+ * Builds the {@link PageTable} of a file in one pass over its bytes. Pages are cut on the bytes
+ * of a new line, so only the charsets in which those bytes cannot be part of another char are
+ * supported: UTF-8, the single byte charsets and UTF-16.
+ */
+public class MappedPageScanner {
+
+    public static final int FIRST_PAGE_CHARS = 50000;
+    public static final int CHARS_FOR_PAGE = 20000;
+
+    private final MappedText.Window window;
+    private final long size;
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final boolean bigEndian;
+    private final int newLineBytes;
+    private final long contentStart;
+    private final PageTable pageTable;
+    private CharBuffer decodeBuffer;
+    private long position;
+    private boolean afterSeparator;
+    private boolean done;
+
+    public MappedPageScanner(FileChannel channel, String encoding) throws IOException {
+        size = channel.size();
+        window = new MappedText.Window(channel, size);
+
+        Charset charset = Charset.forName(encoding);
+        String name = charset.name();
+        long bomLength = 0;
+        if (name.startsWith("UTF-16") && size >= 2) {
+            int first = window.get(0) & 0xff;
+            int second = window.get(1) & 0xff;
+            if (first == 0xfe && second == 0xff) {
+                charset = Charset.forName("UTF-16BE");
+                bomLength = 2;
+            } else if (first == 0xff && second == 0xfe) {
+                charset = Charset.forName("UTF-16LE");
+                bomLength = 2;
+            } else if (name.equals("UTF-16")) {
+                // without a BOM the decoder reads big endian
+                charset = Charset.forName("UTF-16BE");
+            }
+        } else if (name.equals("UTF-8") && size >= 3
+                && (window.get(0) & 0xff) == 0xef && (window.get(1) & 0xff) == 0xbb
+                && (window.get(2) & 0xff) == 0xbf) {
+            bomLength = 3;
+        }
+
+        this.charset = charset;
+        decoder = MappedText.newDecoder(charset);
+        bigEndian = charset.name().equals("UTF-16BE");
+        newLineBytes = charset.name().startsWith("UTF-16") ? 2 : 1;
+        contentStart = bomLength;
+        position = contentStart;
+        pageTable = new PageTable(charset.name(), newLineBytes);
+        pageTable.setBomLength((int) bomLength);
+    }
+
+    public static boolean isSupported(String encoding) {
+        try {
+            Charset charset = Charset.forName(encoding);
+            String name = charset.name();
+            if (name.equals("UTF-8") || name.startsWith("UTF-16"))
+                return true;
+            // single byte charsets where the new line is the ascii one
+            return charset.canEncode()
+                    && charset.newEncoder().maxBytesPerChar() == 1
+                    && new String(new byte[]{'\n', 'a'}, charset).equals("\na");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public PageTable getPageTable() {
+        return pageTable;
+    }
+
+    public long getScannedBytes() {
+        return Math.min(position, size);
+    }
+
+    public long getTotalBytes() {
+        return size;
+    }
+
+    /**
+     * Adds the next page to the table, returns false when the whole file has been scanned.
+     */
+    public boolean scanNextPage() throws IOException {
+        if (done)
+            return false;
+
+        if (position >= size) {
+            done = true;
+            // like PageSystem: an empty file or a file that ends with the separator of the
+            // last page still has one more, empty, page
+            if (pageTable.size() == 0 || afterSeparator) {
+                pageTable.addPage(size, size, 0, 0);
+                return true;
+            }
+            return false;
+        }
+
+        long from = position + (long) newLineBytes
+                * (pageTable.size() == 0 ? FIRST_PAGE_CHARS : CHARS_FOR_PAGE);
+        long newLine = findNewLine(from);
+        long end = newLine >= 0 ? newLine : size;
+
+        decodeBuffer = MappedText.decode(decoder, window.slice(position, end), decodeBuffer);
+        boolean followedBySeparator = newLine >= 0;
+        int charLength = 0;
+        int nOfNewLines = 0;
+        int length = decodeBuffer.limit();
+        for (int i = 0; i < length; i++) {
+            if (MappedText.isSkippedChar(decodeBuffer, i, followedBySeparator)) {
+                pageTable.setCarriageReturns();
+                continue;
+            }
+            charLength++;
+            if (decodeBuffer.get(i) == '\n')
+                nOfNewLines++;
+        }
+        pageTable.addPage(position, end, charLength, nOfNewLines);
+
+        afterSeparator = followedBySeparator;
+        if (followedBySeparator) {
+            position = newLine + newLineBytes;
+        } else {
+            position = size;
+            done = true;
+        }
+        return true;
+    }
+
+    /**
+     * The offset of the first new line at or after the given one, or -1.
+     */
+    private long findNewLine(long from) throws IOException {
+        if (newLineBytes == 2) {
+            // chars are aligned to the start of the text
+            if (((from - contentStart) & 1) != 0)
+                from++;
+            int high = bigEndian ? 0 : 1;
+            for (long i = from; i + 1 < size; i += 2) {
+                if (window.get(i + 1 - high) == '\n' && window.get(i + high) == 0)
+                    return i;
+            }
+            return -1;
+        }
+
+        for (long i = from; i < size; i++) {
+            if (window.get(i) == '\n')
+                return i;
+        }
+        return -1;
+    }
+}
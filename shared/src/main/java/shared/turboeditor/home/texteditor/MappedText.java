@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import android.text.GetChars;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The text of a file that is too big to be read in memory. The pages described by the
+ * {@link PageTable} are windows over a memory mapped {@link FileChannel}, they are decoded only
+ * when one of their chars is read and only the last few decoded pages are kept.
+ * <p>
+ * The chars are laid out like the document of {@link PageSystem}: the pages one after the other,
+ * separated by a new line.
+ */
+public class MappedText implements CharSequence, GetChars, Closeable {
+
+    private static final int DECODED_PAGES = 8;
+
+    private final Closeable source;
+    private final long fileSize;
+    private final PageTable pageTable;
+    // char offset of every page, the one after the last page is the length plus one
+    private int[] charStarts;
+    // written after a page is added, a reader on another thread sees the pages below it
+    private volatile int pages;
+    private final Window window;
+    private final CharsetDecoder decoder;
+    private CharBuffer decodeBuffer;
+
+    private final LinkedHashMap<Integer, String> decodedPages =
+            new LinkedHashMap<Integer, String>(DECODED_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                    return size() > DECODED_PAGES;
+                }
+            };
+
+    private volatile DecodedPage lastPage;
+
+    /**
+     * @param source closed together with this text, the stream that owns the channel
+     */
+    public MappedText(Closeable source, FileChannel channel, PageTable pageTable) throws IOException {
+        this.source = source;
+        this.fileSize = channel.size();
+        this.pageTable = pageTable;
+        this.window = new Window(channel, fileSize);
+        this.decoder = newDecoder(Charset.forName(pageTable.getCharsetName()));
+
+        int pages = pageTable.size();
+        charStarts = new int[pages + 1];
+        for (int i = 0; i < pages; i++)
+            charStarts[i + 1] = charStarts[i] + pageTable.getCharLength(i) + 1;
+        this.pages = pages;
+    }
+
+    /**
+     * Adds the next page of the file, the text grows while the file is being scanned.
+     */
+    public void addPage(long byteStart, long byteEnd, int charLength, int nOfNewLines) {
+        pageTable.addPage(byteStart, byteEnd, charLength, nOfNewLines);
+        int pages = pageTable.size();
+        if (pages >= charStarts.length)
+            charStarts = Arrays.copyOf(charStarts, Math.max(pages + 1, charStarts.length * 2));
+        charStarts[pages] = charStarts[pages - 1] + charLength + 1;
+        this.pages = pages;
+    }
+
+    public PageTable getPageTable() {
+        return pageTable;
+    }
+
+    public int getPageStart(int page) {
+        return charStarts[page];
+    }
+
+    @Override
+    public int length() {
+        int pages = this.pages;
+        return pages == 0 ? 0 : charStarts[pages] - 1;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+
+        DecodedPage page = lastPage;
+        if (page == null || index < charStarts[page.page] || index >= charStarts[page.page + 1])
+            page = getDecodedPage(pageOf(index));
+
+        int offset = index - charStarts[page.page];
+        // the char after the page is the new line that separates it from the next one
+        return offset == page.text.length() ? '\n' : page.text.charAt(offset);
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destStart) {
+        if (start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+        int index = start;
+        while (index < end) {
+            DecodedPage page = getDecodedPage(pageOf(index));
+            int pageStart = charStarts[page.page];
+            int to = Math.min(end, pageStart + page.text.length());
+            if (index < to)
+                page.text.getChars(index - pageStart, to - pageStart, dest, destStart + index - start);
+            if (to < end)
+                dest[destStart + to - start] = '\n';
+            index = to + 1;
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (decodedPages) {
+            decodedPages.clear();
+            lastPage = null;
+        }
+        source.close();
+    }
+
+    private int pageOf(int index) {
+        int low = 0;
+        int high = pages - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (charStarts[middle] <= index)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    private DecodedPage getDecodedPage(int page) {
+        synchronized (decodedPages) {
+            String text = decodedPages.get(page);
+            if (text == null) {
+                text = decodePage(page);
+                decodedPages.put(page, text);
+            }
+            DecodedPage decodedPage = new DecodedPage(page, text);
+            lastPage = decodedPage;
+            return decodedPage;
+        }
+    }
+
+    private String decodePage(int page) {
+        long byteStart = pageTable.getByteStart(page);
+        long byteEnd = pageTable.getByteEnd(page);
+        try {
+            decodeBuffer = decode(decoder, window.slice(byteStart, byteEnd), decodeBuffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read page " + page, e);
+        }
+        boolean followedBySeparator = byteEnd < fileSize;
+        StringBuilder stringBuilder = new StringBuilder(pageTable.getCharLength(page));
+        int length = decodeBuffer.limit();
+        for (int i = 0; i < length; i++) {
+            if (!isSkippedChar(decodeBuffer, i, followedBySeparator))
+                stringBuilder.append(decodeBuffer.get(i));
+        }
+        return stringBuilder.toString();
+    }
+
+    static CharsetDecoder newDecoder(Charset charset) {
+        // same as an InputStreamReader
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Decodes the bytes reusing the buffer when it is big enough, returns the buffer with the
+     * decoded chars between 0 and its limit.
+     */
+    static CharBuffer decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer buffer) {
+        int capacity = (int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+        if (buffer == null || buffer.capacity() < capacity)
+            buffer = CharBuffer.allocate(capacity);
+        buffer.clear();
+        decoder.reset();
+        decoder.decode(bytes, buffer, true);
+        decoder.flush(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Line endings are shown as a single new line, like the lines read by a BufferedReader:
+     * a carriage return is dropped when a new line follows it.
+     */
+    static boolean isSkippedChar(CharBuffer chars, int index, boolean followedBySeparator) {
+        if (chars.get(index) != '\r')
+            return false;
+        return index + 1 < chars.limit() ? chars.get(index + 1) == '\n' : followedBySeparator;
+    }
+
+    private static final class DecodedPage {
+        final int page;
+        final String text;
+
+        DecodedPage(int page, String text) {
+            this.page = page;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A big mapped region of the file, pages inside it are read without mapping anything else.
+     * Mapping every page on its own would leave thousands of mappings around until they are
+     * garbage collected.
+     */
+    static final class Window {
+        private static final long WINDOW_SIZE = 32 * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long fileSize;
+        private MappedByteBuffer buffer;
+        private long start, end;
+
+        Window(FileChannel channel, long fileSize) {
+            this.channel = channel;
+            this.fileSize = fileSize;
+        }
+
+        ByteBuffer slice(long from, long to) throws IOException {
+            ensureMapped(from, to);
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) (to - start));
+            slice.position((int) (from - start));
+            return slice;
+        }
+
+        byte get(long position) throws IOException {
+            ensureMapped(position, position + 1);
+            return buffer.get((int) (position - start));
+        }
+
+        private void ensureMapped(long from, long to) throws IOException {
+            if (buffer != null && from >= start && to <= end)
+                return;
+            long length = Math.max(to - from, Math.min(WINDOW_SIZE, fileSize - from));
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            start = from;
+            end = from + length;
+        }
+    }
+}
@@ -19,78 +19,334 @@
 
 package shared.turboeditor.home.texteditor;
 
-import android.content.Context;
-
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import shared.turboeditor.preferences.PreferenceHelper;
-
+/**
+ * Splits the document in pages. The whole text lives in a {@link PieceTable}, pages are
+ * consecutive ranges of it separated by a new line that doesn't belong to any page.
+ */
 public class PageSystem {
 
-    private List<String> pages;
-    private int[] startingLines;
+    // pages are split when they grow past this and merged when they shrink below the other
+    private static final int MAX_PAGE_CHARS = 2 * MappedPageScanner.FIRST_PAGE_CHARS;
+    private static final int MIN_PAGE_CHARS = MappedPageScanner.CHARS_FOR_PAGE / 4;
+
+    private PieceTable document;
+    private MappedText mappedText;
+    // pages appended while the file is read
+    private AppendOnlyBuffer loadedText;
+    // length of every page plus its separator, the prefix sums are the page starts
+    private FenwickTree pageSizes;
+    // lines of every page, the prefix sums are the starting lines
+    private FenwickTree pageLines;
+    // for every page the version of the document when it last changed, 0 if it did not change
+    // since the file was read or saved
+    private int[] pageVersions = new int[16];
+    private int version;
+    // changes every time pages are split or merged
+    private int pagesVersion;
+    // the first page that changed or moved since it was last asked
+    private int firstChangedPage = Integer.MAX_VALUE;
+    // where the pages are in the file, null if unknown
+    private PageTable savedPages;
     private int currentPage = 0;
     private PageSystemInterface pageSystemInterface;
 
-    public PageSystem(Context context, PageSystemInterface pageSystemInterface, String text) {
+    /**
+     * @param splitText false to keep the whole text in one page
+     */
+    public PageSystem(PageSystemInterface pageSystemInterface, String text, boolean splitText) {
 
         final int charForPage = 20000;
         final int firstPageChars = 50000;
 
         this.pageSystemInterface = pageSystemInterface;
-        pages = new LinkedList<>();
+        document = new PieceTable(text);
+        pageSizes = new FenwickTree();
+        pageLines = new FenwickTree();
 
         int i = 0;
         int to;
         int nextIndexOfReturn;
         final int textLength = text.length();
-        boolean pageSystemEnabled = PreferenceHelper.getSplitText(context);
-
-        if (pageSystemEnabled) {
+        if (splitText) {
             while (i < textLength) {
                 // first page is longer
                 to = i + (i == 0 ? firstPageChars : charForPage);
                 nextIndexOfReturn = text.indexOf("\n", to);
-                if (nextIndexOfReturn > to) to = nextIndexOfReturn;
-                if (to > text.length()) to = text.length();
-                pages.add(text.substring(i, to));
+                // without a new line we cannot cut here, the new line is what separates the pages
+                if (nextIndexOfReturn >= to) to = nextIndexOfReturn;
+                else to = textLength;
+                addPage(i, to);
                 i = to + 1;
             }
 
+            // the text ends with the new line that separated the last page
+            if (i == textLength && textLength > 0)
+                addPage(i, i);
 
             if (i == 0)
-                pages.add("");
+                addPage(0, 0);
         } else {
-            pages.add(text);
+            addPage(0, textLength);
+        }
+    }
+
+    /**
+     * Pages of a file too big to be read in memory, they are decoded from the file only when
+     * they are read. Such files are always split in pages.
+     */
+    public PageSystem(PageSystemInterface pageSystemInterface, MappedText text) {
+        this.pageSystemInterface = pageSystemInterface;
+        mappedText = text;
+        document = new PieceTable(text);
+
+        PageTable pageTable = text.getPageTable();
+        savedPages = pageTable;
+        pageSizes = new FenwickTree(pageTable.size());
+        pageLines = new FenwickTree(pageTable.size());
+        for (int i = 0; i < pageTable.size(); i++) {
+            pageSizes.append(pageTable.getCharLength(i) + 1);
+            pageLines.append(pageTable.getNewLines(i) + 1);
         }
+    }
+
+    /**
+     * An empty document, the pages of the file are added with {@link #appendPage(CharSequence)}
+     * while it is read.
+     */
+    public PageSystem(PageSystemInterface pageSystemInterface) {
+        this.pageSystemInterface = pageSystemInterface;
+        loadedText = new AppendOnlyBuffer();
+        document = new PieceTable(loadedText);
+        pageSizes = new FenwickTree();
+        pageLines = new FenwickTree();
+    }
 
-        startingLines = new int[pages.size()];
-        setStartingLines();
+    /**
+     * Adds a page read after the page system was created.
+     */
+    public void appendPage(CharSequence text) {
+        if (getPageCount() > 0)
+            loadedText.append('\n');
+        loadedText.append(text);
+        document.appendOriginal();
+        pageSizes.append(text.length() + 1);
+        pageLines.append(countNewLines(text, 0, text.length()) + 1);
+    }
+
+    /**
+     * Adds a page of a mapped document found after the page system was created.
+     *
+     * @param carriageReturns line endings with a carriage return were found in the file so far
+     */
+    public void appendPage(long byteStart, long byteEnd, int charLength, int nOfNewLines,
+                           boolean carriageReturns) {
+        mappedText.addPage(byteStart, byteEnd, charLength, nOfNewLines);
+        if (carriageReturns)
+            mappedText.getPageTable().setCarriageReturns();
+        // pages were already split or merged, the table of the file is not the saved one anymore
+        if (savedPages != null && savedPages != mappedText.getPageTable()) {
+            savedPages.addPage(byteStart, byteEnd, charLength, nOfNewLines);
+            if (carriageReturns)
+                savedPages.setCarriageReturns();
+        }
+        document.appendOriginal();
+        pageSizes.append(charLength + 1);
+        pageLines.append(nOfNewLines + 1);
+    }
+
+    private void addPage(int start, int end) {
+        pageSizes.append(end - start + 1);
+        pageLines.append(countNewLines(document, start, end) + 1);
+    }
+
+    private void setDirty(int page) {
+        if (page >= pageVersions.length)
+            pageVersions = Arrays.copyOf(pageVersions, Math.max(page + 1, pageVersions.length * 2));
+        pageVersions[page] = ++version;
+        firstChangedPage = Math.min(firstChangedPage, page);
+    }
+
+    private boolean isDirty(int page) {
+        return page < pageVersions.length && pageVersions[page] != 0;
+    }
+
+    public static int countNewLines(CharSequence text, int start, int end) {
+        int nOfNewLines = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n')
+                nOfNewLines++;
+        }
+        return nOfNewLines;
+    }
+
+    public int getPageStart(int page) {
+        return pageSizes.prefixSum(page);
+    }
+
+    public int getPageLength(int page) {
+        return pageSizes.get(page) - 1;
+    }
+
+    public int getPageCount() {
+        return pageSizes.size();
+    }
+
+    /**
+     * The page that contains the char at the given offset of the document.
+     */
+    public int getPageOfOffset(int offset) {
+        return Math.min(pageSizes.indexOf(offset), getPageCount() - 1);
     }
 
     public int getStartingLine() {
-        return startingLines[currentPage];
+        return getStartingLine(currentPage);
+    }
+
+    public int getStartingLine(int page) {
+        return pageLines.prefixSum(page);
+    }
+
+    public int getLineCount(int page) {
+        return pageLines.get(page);
+    }
+
+    public int getLineCount() {
+        return pageLines.sum();
+    }
+
+    /**
+     * The page that contains the given line, lines are counted from 0.
+     */
+    public int getPageOfLine(int line) {
+        return Math.min(pageLines.indexOf(line), getPageCount() - 1);
     }
 
     public String getCurrentPageText() {
-        return pages.get(currentPage);
+        return getPageText(currentPage);
+    }
+
+    /**
+     * A view of the current page, it is not copied and it is valid until the document changes.
+     */
+    public CharSequence getCurrentPageSequence() {
+        int start = getPageStart(currentPage);
+        return document.subSequence(start, start + getPageLength(currentPage));
+    }
+
+    public String getPageText(int page) {
+        int start = getPageStart(page);
+        return document.getText(start, start + getPageLength(page));
     }
 
     public String getTextOfNextPages(boolean includeCurrent, int nOfPages) {
         StringBuilder stringBuilder = new StringBuilder();
         int i;
         for (i = includeCurrent ? 0 : 1; i < nOfPages; i++) {
-            if (pages.size() > (currentPage + i)) {
-                stringBuilder.append(pages.get(currentPage + 1));
+            if (getPageCount() > (currentPage + i)) {
+                int start = getPageStart(currentPage + i);
+                document.appendTo(stringBuilder, start, start + getPageLength(currentPage + i));
             }
         }
 
         return stringBuilder.toString();
     }
 
+    /**
+     * Writes the text of the current page into the document. Only the range between the
+     * common prefix and the common suffix of the old and the new text is replaced, and only
+     * that range is scanned to keep the line count of the page up to date.
+     */
     public void savePage(String currentText) {
-        pages.set(currentPage, currentText);
+        setPageText(currentPage, currentText);
+    }
+
+    private void setPageText(int page, CharSequence currentText) {
+        int start = getPageStart(page);
+        int oldLength = getPageLength(page);
+        int newLength = currentText.length();
+
+        int prefix = 0;
+        int maxPrefix = Math.min(oldLength, newLength);
+        while (prefix < maxPrefix && document.charAt(start + prefix) == currentText.charAt(prefix))
+            prefix++;
+
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && document.charAt(start + oldLength - 1 - suffix) == currentText.charAt(newLength - 1 - suffix))
+            suffix++;
+
+        if (prefix == oldLength && prefix == newLength)
+            return;
+
+        int removedNewLines = countNewLines(document, start + prefix, start + oldLength - suffix);
+        int addedNewLines = countNewLines(currentText, prefix, newLength - suffix);
+
+        document.replace(start + prefix, start + oldLength - suffix,
+                currentText.subSequence(prefix, newLength - suffix));
+        pageSizes.add(page, newLength - oldLength);
+        pageLines.add(page, addedNewLines - removedNewLines);
+        setDirty(page);
+    }
+
+    /**
+     * Replaces every match in the document. The pattern is matched once over the whole text, so
+     * the anchors only match at its bounds and a match can take the new line between two pages:
+     * the pages it goes across become one. Returns how many pages changed, the current one has
+     * to be shown again if it is one of them.
+     *
+     * @param replacement as in {@link Matcher#appendReplacement(StringBuffer, String)}
+     */
+    public int replaceAll(String currentPageText, Pattern pattern, String replacement) {
+        savePage(currentPageText);
+        PieceTable.Snapshot text = document.snapshot();
+        Matcher matcher = pattern.matcher(text);
+        List<PageEdit> edits = new ArrayList<>();
+        PageEdit edit = null;
+        StringBuffer replaced = new StringBuffer();
+        int previousEnd = 0;
+        while (matcher.find()) {
+            int start = matcher.start();
+            int end = matcher.end();
+            replaced.setLength(0);
+            matcher.appendReplacement(replaced, replacement);
+            int page = getPageOfOffset(start);
+            if (edit == null || page > edit.lastPage) {
+                if (edit != null)
+                    edit.finish(text, getPageStart(edit.lastPage) + getPageLength(edit.lastPage));
+                edit = new PageEdit(page, getPageStart(page));
+                edits.add(edit);
+            }
+            edit.text.append(text.getText(edit.copied, start));
+            // appendReplacement copied the text since the end of the last match first
+            edit.text.append(replaced, start - previousEnd, replaced.length());
+            edit.copied = end;
+            edit.lastPage = Math.max(edit.lastPage, getPageOfOffset(end));
+            previousEnd = end;
+        }
+        if (edit == null)
+            return 0;
+        edit.finish(text, getPageStart(edit.lastPage) + getPageLength(edit.lastPage));
+
+        // from the last one, so the pages before an edit are still where they were
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            edit = edits.get(i);
+            if (edit.lastPage > edit.firstPage) {
+                int count = edit.lastPage - edit.firstPage + 1;
+                int size = pageSizes.prefixSum(edit.lastPage + 1) - pageSizes.prefixSum(edit.firstPage);
+                int lines = pageLines.prefixSum(edit.lastPage + 1) - pageLines.prefixSum(edit.firstPage);
+                currentPage = splicePages(edit.firstPage, count, new int[]{size}, new int[]{lines}, false, currentPage);
+            }
+            setPageText(edit.firstPage, edit.text);
+        }
+        return edits.size();
     }
 
     public void nextPage() {
@@ -104,66 +360,231 @@ public class PageSystem {
     }
 
     public void goToPage(int page) {
-        if (page >= pages.size()) page = pages.size() - 1;
+        page = rebalance(currentPage, page);
+        if (page >= getPageCount()) page = getPageCount() - 1;
         if (page < 0) page = 0;
-        boolean shouldUpdateLines = page > currentPage && canReadNextPage();
-        if (shouldUpdateLines) {
-            String text = getCurrentPageText();
-            int nOfNewLineNow = (text.length() - text.replace("\n", "").length()) + 1; // normally the last line is not counted so we have to add 1
-            int nOfNewLineBefore = startingLines[currentPage + 1] - startingLines[currentPage];
-            int difference = nOfNewLineNow - nOfNewLineBefore;
-            updateStartingLines(currentPage + 1, difference);
-        }
         currentPage = page;
         pageSystemInterface.onPageChanged(page);
     }
 
-    public void setStartingLines() {
-        int i;
-        int startingLine;
-        int nOfNewLines;
-        String text;
-        startingLines[0] = 0;
-        for (i = 1; i < pages.size(); i++) {
-            text = pages.get(i - 1);
-            nOfNewLines = text.length() - text.replace("\n", "").length() + 1;
-            startingLine = startingLines[i - 1] + nOfNewLines;
-            startingLines[i] = startingLine;
+    /**
+     * Splits the page if it grew too long and merges it with a neighbour if it became too short,
+     * so every page stays quick to lay out and highlight. The text does not change, only which
+     * new lines separate the pages. Returns the index the target page has afterwards.
+     */
+    private int rebalance(int page, int target) {
+        if (page >= getPageCount())
+            return target;
+        int length = getPageLength(page);
+
+        if (length > MAX_PAGE_CHARS) {
+            // cut like a file that is read
+            String text = getPageText(page);
+            int pages = 0;
+            int[] sizes = new int[length / MappedPageScanner.CHARS_FOR_PAGE + 1];
+            int[] lines = new int[sizes.length];
+            int start = 0;
+            while (length - start > MAX_PAGE_CHARS) {
+                int end = text.indexOf('\n', start + (page == 0 && start == 0
+                        ? MappedPageScanner.FIRST_PAGE_CHARS : MappedPageScanner.CHARS_FOR_PAGE));
+                if (end < 0)
+                    break;
+                sizes[pages] = end - start + 1;
+                lines[pages] = countNewLines(text, start, end) + 1;
+                pages++;
+                start = end + 1;
+            }
+            if (pages == 0)
+                return target;
+            sizes[pages] = length - start + 1;
+            lines[pages] = countNewLines(text, start, length) + 1;
+            pages++;
+            // where the new pages are in the file is not known
+            return splicePages(page, 1, Arrays.copyOf(sizes, pages), Arrays.copyOf(lines, pages), true, target);
+        }
+
+        if (length < MIN_PAGE_CHARS && getPageCount() > 1) {
+            // into the previous page, so the next page is still after the current one
+            int first = page > 0 ? page - 1 : page;
+            int size = pageSizes.get(first) + pageSizes.get(first + 1);
+            if (size - 1 > MAX_PAGE_CHARS)
+                return target;
+            int lines = pageLines.get(first) + pageLines.get(first + 1);
+            boolean dirty = isDirty(first) || isDirty(first + 1);
+            return splicePages(first, 2, new int[]{size}, new int[]{lines}, dirty, target);
         }
+        return target;
     }
 
-    public void updateStartingLines(int fromPage, int difference) {
-        if (difference == 0)
-            return;
-        int i;
-        if (fromPage < 1) fromPage = 1;
-        for (i = fromPage; i < pages.size(); i++) {
-            startingLines[i] += difference;
+    /**
+     * Replaces count pages from the first one with pages of the given sizes and lines, the text
+     * they cover is the same. Returns the index the target page has afterwards.
+     */
+    private int splicePages(int first, int count, int[] sizes, int[] lines, boolean dirty, int target) {
+        if (savedPages != null && savedPages.size() == getPageCount()) {
+            // the new pages cover the same bytes, split pages start where the first one ends
+            PageTable pageTable = new PageTable(savedPages.getCharsetName(), savedPages.getNewLineBytes());
+            pageTable.setFile(savedPages.getFilePath(), savedPages.getFileLength(), savedPages.getLastModified());
+            if (savedPages.hasCarriageReturns())
+                pageTable.setCarriageReturns();
+            pageTable.setBomLength(savedPages.getBomLength());
+            for (int i = 0; i < first; i++)
+                copyPage(savedPages, i, pageTable);
+            long byteStart = savedPages.getByteStart(first);
+            long byteEnd = savedPages.getByteEnd(first + count - 1);
+            for (int i = 0; i < sizes.length; i++) {
+                pageTable.addPage(i == 0 ? byteStart : byteEnd, byteEnd, sizes[i] - 1, lines[i] - 1);
+            }
+            for (int i = first + count; i < savedPages.size(); i++)
+                copyPage(savedPages, i, pageTable);
+            savedPages = pageTable;
+        } else {
+            savedPages = null;
         }
+
+        int[] versions = new int[Math.max(pageVersions.length, getPageCount() - count + sizes.length)];
+        System.arraycopy(pageVersions, 0, versions, 0, Math.min(first, pageVersions.length));
+        if (first + count < pageVersions.length)
+            System.arraycopy(pageVersions, first + count, versions, first + sizes.length,
+                    Math.min(pageVersions.length, getPageCount()) - first - count);
+        pageVersions = versions;
+        pageSizes.splice(first, count, sizes);
+        pageLines.splice(first, count, lines);
+        if (dirty) {
+            for (int i = 0; i < sizes.length; i++)
+                setDirty(first + i);
+        }
+        pagesVersion++;
+        firstChangedPage = Math.min(firstChangedPage, first);
+
+        if (target < first)
+            return target;
+        if (target >= first + count)
+            return target - count + sizes.length;
+        return first;
+    }
+
+    private static void copyPage(PageTable from, int page, PageTable to) {
+        to.addPage(from.getByteStart(page), from.getByteEnd(page), from.getCharLength(page), from.getNewLines(page));
     }
 
     public int getMaxPage() {
-        return pages.size() - 1;
+        return getPageCount() - 1;
     }
 
     public int getCurrentPage() {
         return currentPage;
     }
 
+    /**
+     * The first page whose text changed or that was split or merged since the last call,
+     * {@link Integer#MAX_VALUE} if none was.
+     */
+    public int takeFirstChangedPage() {
+        int page = firstChangedPage;
+        firstChangedPage = Integer.MAX_VALUE;
+        return page;
+    }
+
     public String getAllText(String currentPageText) {
-        pages.set(currentPage, currentPageText);
-        int i;
-        StringBuilder allText = new StringBuilder();
-        for (i = 0; i < pages.size(); i++) {
-            allText.append(pages.get(i));
-            if(i < pages.size() - 1)
-                allText.append("\n");
+        savePage(currentPageText);
+        return document.toString();
+    }
+
+    /**
+     * The whole text, the pages one after the other separated by a new line. It is not copied
+     * and it does not change while the document is edited, so it can be searched on another
+     * thread; its sub sequences are not copied either.
+     */
+    public CharSequence getDocumentText(String currentPageText) {
+        savePage(currentPageText);
+        return document.snapshot();
+    }
+
+    /**
+     * The whole text without copying it, it can be read on another thread while the document
+     * is edited. The pages of a mapped document may still be read from the file, so it must
+     * not be written, see {@link #getSaveSnapshot(String)}.
+     */
+    public DocumentSnapshot getDocumentSnapshot(String currentPageText) {
+        savePage(currentPageText);
+        return newSnapshot();
+    }
+
+    /**
+     * Like {@link #getDocumentSnapshot(String)}, but the changed pages of a mapped document are
+     * not read from the file anymore: they may be written over their old bytes. A page is copied
+     * out of the file only the first time it is saved after it changed.
+     */
+    public DocumentSnapshot getSaveSnapshot(String currentPageText) {
+        savePage(currentPageText);
+        if (mappedText != null) {
+            for (int i = 0; i < getPageCount(); i++) {
+                if (!isDirty(i))
+                    continue;
+                int start = getPageStart(i);
+                int end = start + getPageLength(i);
+                if (document.hasOriginal(start, end))
+                    document.replace(start, end, document.getText(start, end));
+            }
+        }
+        return newSnapshot();
+    }
+
+    private DocumentSnapshot newSnapshot() {
+        int pages = getPageCount();
+        int[] pageStarts = new int[pages + 1];
+        int[] lines = new int[pages];
+        boolean[] dirtyPages = new boolean[pages];
+        for (int i = 0; i < pages; i++) {
+            pageStarts[i + 1] = pageStarts[i] + pageSizes.get(i);
+            lines[i] = pageLines.get(i);
+            dirtyPages[i] = isDirty(i);
+        }
+
+        PageTable pageTable = savedPages != null && savedPages.size() == pages ? savedPages : null;
+        boolean byteOrderMark = mappedText != null && mappedText.getPageTable().getBomLength() > 0;
+        return new DocumentSnapshot(this, document.snapshot(), pageStarts, lines, dirtyPages,
+                pageTable, mappedText != null, byteOrderMark, version, pagesVersion);
+    }
+
+    /**
+     * The snapshot has been written, the pages are now where the table says. Pages changed
+     * after the snapshot was taken are still dirty.
+     *
+     * @param pageTable null if the pages of the new file are unknown
+     */
+    public void onDocumentSaved(DocumentSnapshot snapshot, PageTable pageTable) {
+        if (snapshot.getPageSystem() != this)
+            return;
+        // pages split or merged since the snapshot are not where the table says
+        savedPages = pageTable != null && snapshot.getPagesVersion() == pagesVersion
+                && pageTable.size() == getPageCount() ? pageTable : null;
+        for (int i = 0; i < pageVersions.length; i++) {
+            if (pageVersions[i] <= snapshot.getVersion())
+                pageVersions[i] = 0;
+        }
+    }
+
+    public boolean isMapped() {
+        return mappedText != null;
+    }
+
+    /**
+     * Releases the file of a mapped document, the page system cannot be used anymore.
+     */
+    public void close() {
+        if (mappedText == null)
+            return;
+        try {
+            mappedText.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return allText.toString();
     }
 
     public boolean canReadNextPage() {
-        return currentPage < pages.size() - 1;
+        return currentPage < getPageCount() - 1;
     }
 
     public boolean canReadPrevPage() {
@@ -173,4 +594,25 @@ public class PageSystem {
     public interface PageSystemInterface {
         void onPageChanged(int page);
     }
+
+    /**
+     * The new text of the pages from the first to the last one, they become a single page.
+     */
+    private static final class PageEdit {
+        final int firstPage;
+        int lastPage;
+        final StringBuilder text = new StringBuilder();
+        // offset in the document of the text that is not in the new text yet
+        int copied;
+
+        PageEdit(int page, int pageStart) {
+            firstPage = page;
+            lastPage = page;
+            copied = pageStart;
+        }
+
+        void finish(PieceTable.Snapshot document, int end) {
+            text.append(document.getText(copied, end));
+        }
+    }
 }
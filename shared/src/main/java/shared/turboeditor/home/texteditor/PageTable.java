@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Where every page of a file is: the byte range of its text (the new line that separates it
+ * from the next page is not included), how many chars it decodes to and how many new lines
+ * it contains.
+ */
+public class PageTable {
+
+    private final String charsetName;
+    private final int newLineBytes;
+    // the file the byte ranges refer to, as it was when they were found
+    private String filePath;
+    private long fileLength;
+    private long lastModified;
+    private boolean carriageReturns;
+    private int bomLength;
+    private long[] byteStarts = new long[16];
+    private long[] byteEnds = new long[16];
+    private int[] charLengths = new int[16];
+    private int[] newLines = new int[16];
+    private int size;
+
+    public PageTable(String charsetName, int newLineBytes) {
+        this.charsetName = charsetName;
+        this.newLineBytes = newLineBytes;
+    }
+
+    public void addPage(long byteStart, long byteEnd, int charLength, int nOfNewLines) {
+        if (size == byteStarts.length) {
+            byteStarts = Arrays.copyOf(byteStarts, size * 2);
+            byteEnds = Arrays.copyOf(byteEnds, size * 2);
+            charLengths = Arrays.copyOf(charLengths, size * 2);
+            newLines = Arrays.copyOf(newLines, size * 2);
+        }
+        byteStarts[size] = byteStart;
+        byteEnds[size] = byteEnd;
+        charLengths[size] = charLength;
+        newLines[size] = nOfNewLines;
+        size++;
+    }
+
+    public void setFile(String filePath, long fileLength, long lastModified) {
+        this.filePath = filePath;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * True if the byte ranges still describe the file, that is the file has not been changed
+     * since they were found.
+     */
+    public boolean describes(String path, long length, long modified) {
+        return filePath != null && filePath.equals(path) && fileLength == length && lastModified == modified;
+    }
+
+    /**
+     * Line endings with a carriage return were read as a single new line, so the text of a page
+     * does not encode back to its bytes.
+     */
+    public boolean hasCarriageReturns() {
+        return carriageReturns;
+    }
+
+    public void setCarriageReturns() {
+        carriageReturns = true;
+    }
+
+    /**
+     * How many bytes the byte order mark at the start of the file takes, it is not part of the
+     * text of the first page.
+     */
+    public int getBomLength() {
+        return bomLength;
+    }
+
+    public void setBomLength(int bomLength) {
+        this.bomLength = bomLength;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The charset used to decode the pages, a BOM is already resolved to the right byte order.
+     */
+    public String getCharsetName() {
+        return charsetName;
+    }
+
+    public int getNewLineBytes() {
+        return newLineBytes;
+    }
+
+    public long getByteStart(int page) {
+        return byteStarts[page];
+    }
+
+    public long getByteEnd(int page) {
+        return byteEnds[page];
+    }
+
+    public int getCharLength(int page) {
+        return charLengths[page];
+    }
+
+    public int getNewLines(int page) {
+        return newLines[page];
+    }
+
+    public void write(DataOutputStream output) throws IOException {
+        output.writeUTF(charsetName);
+        output.writeInt(newLineBytes);
+        output.writeUTF(filePath != null ? filePath : "");
+        output.writeLong(fileLength);
+        output.writeLong(lastModified);
+        output.writeBoolean(carriageReturns);
+        output.writeInt(bomLength);
+        output.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            output.writeLong(byteStarts[i]);
+            output.writeLong(byteEnds[i]);
+            output.writeInt(charLengths[i]);
+            output.writeInt(newLines[i]);
+        }
+    }
+
+    public static PageTable read(DataInputStream input) throws IOException {
+        PageTable pageTable = new PageTable(input.readUTF(), input.readInt());
+        String filePath = input.readUTF();
+        pageTable.setFile(filePath.isEmpty() ? null : filePath, input.readLong(), input.readLong());
+        pageTable.carriageReturns = input.readBoolean();
+        pageTable.bomLength = input.readInt();
+        int pages = input.readInt();
+        if (pages < 0)
+            throw new IOException("Invalid page count " + pages);
+        for (int i = 0; i < pages; i++)
+            pageTable.addPage(input.readLong(), input.readLong(), input.readInt(), input.readInt());
+        return pageTable;
+    }
+}
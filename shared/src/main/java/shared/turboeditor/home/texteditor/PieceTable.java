@@ -0,0 +1,547 @@
+/*
+ * Copyright (C) 2014 Vlad Mihalachi
+ *
+ * This file is part of Turbo Editor.
+ *
+ * Turbo Editor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Turbo Editor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package shared.turboeditor.home.texteditor;
+
+import android.text.GetChars;
+
+import java.util.Arrays;
+
+/**
+ * A piece table: the text is never copied, it is described by a sequence of pieces that point
+ * either into the read-only original buffer or into an append-only buffer that receives
+ * every inserted char. The pieces are kept in a treap ordered by position, so inserts,
+ * deletes and random access cost O(log pieces).
+ */
+public class PieceTable implements CharSequence {
+
+    private final CharSequence original;
+    // chars of the original buffer already in the table, the buffer can grow, see appendOriginal()
+    private int originalLength;
+    private final AppendOnlyBuffer added = new AppendOnlyBuffer();
+    private Node root;
+
+    // results of split(), kept in fields so that splitting does not allocate
+    private Node splitLeft, splitRight;
+
+    // last piece found by charAt(), sequential reads (regex, save) hit it most of the times
+    private Node cachedNode;
+    private int cachedNodeStart;
+
+    private int seed = 0x2545F491;
+
+    public PieceTable(CharSequence original) {
+        this.original = original;
+        originalLength = original.length();
+        if (originalLength > 0)
+            root = newNode(false, 0, originalLength);
+    }
+
+    @Override
+    public int length() {
+        return root == null ? 0 : root.subtreeLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+
+        if (cachedNode != null && index >= cachedNodeStart && index < cachedNodeStart + cachedNode.length)
+            return bufferOf(cachedNode).charAt(cachedNode.start + index - cachedNodeStart);
+
+        Node node = root;
+        int nodeStart = 0;
+        while (true) {
+            int leftLength = size(node.left);
+            if (index < nodeStart + leftLength) {
+                node = node.left;
+            } else if (index < nodeStart + leftLength + node.length) {
+                nodeStart += leftLength;
+                break;
+            } else {
+                nodeStart += leftLength + node.length;
+                node = node.right;
+            }
+        }
+        cachedNode = node;
+        cachedNodeStart = nodeStart;
+        return bufferOf(node).charAt(node.start + index - nodeStart);
+    }
+
+    /**
+     * Returns a read-only view of the given range. The view does not copy anything, it stays
+     * valid only until the next modification of the table.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange(start, end);
+        return new View(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return getText(0, length());
+    }
+
+    public String getText(int start, int end) {
+        checkRange(start, end);
+        StringBuilder stringBuilder = new StringBuilder(end - start);
+        appendTo(stringBuilder, start, end);
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Appends the chars in [start, end) to the builder, piece by piece.
+     */
+    public void appendTo(StringBuilder stringBuilder, int start, int end) {
+        checkRange(start, end);
+        if (start < end)
+            appendTo(root, 0, stringBuilder, start, end);
+    }
+
+    public void insert(int offset, CharSequence text) {
+        if (offset < 0 || offset > length())
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length());
+        int textLength = text.length();
+        if (textLength == 0)
+            return;
+
+        int addedStart = added.length();
+        added.append(text);
+        invalidateCache();
+
+        split(root, offset);
+        Node left = splitLeft;
+        Node right = splitRight;
+        // typing appends to the piece written just before, so we grow it instead of adding a new one
+        if (!extendLastPiece(left, true, addedStart, textLength))
+            left = merge(left, newNode(true, addedStart, textLength));
+        root = merge(left, right);
+    }
+
+    /**
+     * Appends to the end of the table the chars added to the original buffer since the table was
+     * created or since the last call, the original buffer grows while a file is being read.
+     */
+    public void appendOriginal() {
+        int end = original.length();
+        if (end == originalLength)
+            return;
+        invalidateCache();
+
+        int start = originalLength;
+        originalLength = end;
+        if (!extendLastPiece(root, false, start, end - start))
+            root = merge(root, newNode(false, start, end - start));
+    }
+
+    public void delete(int start, int end) {
+        checkRange(start, end);
+        if (start == end)
+            return;
+        invalidateCache();
+
+        split(root, start);
+        Node left = splitLeft;
+        split(splitRight, end - start);
+        root = merge(left, splitRight);
+    }
+
+    public void replace(int start, int end, CharSequence text) {
+        delete(start, end);
+        insert(start, text);
+    }
+
+    /**
+     * An immutable copy of the list of pieces, it costs O(pieces) and copies no text. The chars
+     * it points to are never changed and the added buffer publishes them safely, so the snapshot
+     * can be read on another thread while the table is edited as long as the original buffer
+     * can be too: a String, a {@link MappedText} or an {@link AppendOnlyBuffer}.
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(getPieceCount());
+        addPieces(root, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * True if a char in [start, end) is still read from the original buffer.
+     */
+    public boolean hasOriginal(int start, int end) {
+        checkRange(start, end);
+        return start < end && hasOriginal(root, 0, start, end);
+    }
+
+    public int getPieceCount() {
+        return count(root);
+    }
+
+    /**
+     * Size of the append-only buffer, it only grows while the document is edited.
+     */
+    public int getAddedLength() {
+        return added.length();
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+    }
+
+    private void invalidateCache() {
+        cachedNode = null;
+    }
+
+    private CharSequence bufferOf(Node node) {
+        return node.inAdded ? added : original;
+    }
+
+    private void appendTo(Node node, int nodeOffset, StringBuilder stringBuilder, int start, int end) {
+        while (node != null) {
+            int leftLength = size(node.left);
+            int pieceStart = nodeOffset + leftLength;
+            int pieceEnd = pieceStart + node.length;
+            if (start < pieceStart)
+                appendTo(node.left, nodeOffset, stringBuilder, start, Math.min(end, pieceStart));
+            if (start < pieceEnd && end > pieceStart) {
+                int from = node.start + Math.max(start, pieceStart) - pieceStart;
+                int to = node.start + Math.min(end, pieceEnd) - pieceStart;
+                CharSequence buffer = bufferOf(node);
+                if (buffer instanceof String)
+                    stringBuilder.append((String) buffer, from, to);
+                else if (buffer instanceof AppendOnlyBuffer)
+                    ((AppendOnlyBuffer) buffer).appendTo(stringBuilder, from, to);
+                else
+                    stringBuilder.append(buffer, from, to);
+            }
+            if (end <= pieceEnd)
+                return;
+            // continue on the right subtree without recursion
+            nodeOffset = pieceEnd;
+            start = Math.max(start, pieceEnd);
+            node = node.right;
+        }
+    }
+
+    private static boolean hasOriginal(Node node, int nodeOffset, int start, int end) {
+        while (node != null) {
+            int pieceStart = nodeOffset + size(node.left);
+            int pieceEnd = pieceStart + node.length;
+            if (start < pieceStart && hasOriginal(node.left, nodeOffset, start, Math.min(end, pieceStart)))
+                return true;
+            if (!node.inAdded && start < pieceEnd && end > pieceStart)
+                return true;
+            if (end <= pieceEnd)
+                return false;
+            nodeOffset = pieceEnd;
+            start = Math.max(start, pieceEnd);
+            node = node.right;
+        }
+        return false;
+    }
+
+    private void addPieces(Node node, Snapshot snapshot) {
+        while (node != null) {
+            addPieces(node.left, snapshot);
+            snapshot.add(bufferOf(node), node.start, node.length);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Copies the chars in [start, end) of any CharSequence, without going through charAt()
+     * when the sequence knows how to copy them itself.
+     */
+    static void getChars(CharSequence text, int start, int end, char[] dest, int destStart) {
+        if (text instanceof String) {
+            ((String) text).getChars(start, end, dest, destStart);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(start, end, dest, destStart);
+        } else if (text instanceof GetChars) {
+            ((GetChars) text).getChars(start, end, dest, destStart);
+        } else {
+            for (int i = start; i < end; i++)
+                dest[destStart++] = text.charAt(i);
+        }
+    }
+
+    private boolean extendLastPiece(Node node, boolean inAdded, int bufferStart, int textLength) {
+        if (node == null)
+            return false;
+        if (node.right != null) {
+            if (!extendLastPiece(node.right, inAdded, bufferStart, textLength))
+                return false;
+        } else if (node.inAdded != inAdded || node.start + node.length != bufferStart) {
+            return false;
+        } else {
+            node.length += textLength;
+        }
+        node.subtreeLength += textLength;
+        return true;
+    }
+
+    /**
+     * Splits the tree in the pieces before offset (splitLeft) and the pieces after it (splitRight).
+     * A piece that contains offset is cut in two.
+     */
+    private void split(Node node, int offset) {
+        if (node == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        int leftLength = size(node.left);
+        if (offset <= leftLength) {
+            split(node.left, offset);
+            node.left = splitRight;
+            update(node);
+            splitRight = node;
+        } else if (offset >= leftLength + node.length) {
+            split(node.right, offset - leftLength - node.length);
+            node.right = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            int cut = offset - leftLength;
+            Node tail = newNode(node.inAdded, node.start + cut, node.length - cut);
+            Node right = node.right;
+            node.length = cut;
+            node.right = null;
+            update(node);
+            splitLeft = node;
+            splitRight = merge(tail, right);
+        }
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    private Node newNode(boolean inAdded, int start, int length) {
+        // xorshift, we only need the priorities to be well spread
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        Node node = new Node(inAdded, start, length, seed);
+        update(node);
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.subtreeLength;
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : 1 + count(node.left) + count(node.right);
+    }
+
+    private static void update(Node node) {
+        node.subtreeLength = size(node.left) + node.length + size(node.right);
+    }
+
+    private static final class Node {
+        final boolean inAdded;
+        final int start;
+        final int priority;
+        int length;
+        int subtreeLength;
+        Node left, right;
+
+        Node(boolean inAdded, int start, int length, int priority) {
+            this.inAdded = inAdded;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * See {@link #snapshot()}.
+     */
+    public static final class Snapshot implements CharSequence, GetChars {
+        private final CharSequence[] buffers;
+        private final int[] bufferStarts;
+        // position of every piece in the text, the one after the last piece is the length
+        private final int[] pieceStarts;
+        private int size;
+        // the piece of the last char read, chars are mostly read one after the other
+        private int lastPiece;
+
+        Snapshot(int pieces) {
+            buffers = new CharSequence[pieces];
+            bufferStarts = new int[pieces];
+            pieceStarts = new int[pieces + 1];
+        }
+
+        void add(CharSequence buffer, int start, int length) {
+            buffers[size] = buffer;
+            bufferStarts[size] = start;
+            pieceStarts[size + 1] = pieceStarts[size] + length;
+            size++;
+        }
+
+        @Override
+        public int length() {
+            return pieceStarts[size];
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length())
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+            int piece = lastPiece;
+            if (index < pieceStarts[piece] || index >= pieceStarts[piece + 1]) {
+                piece = pieceOf(index);
+                lastPiece = piece;
+            }
+            return buffers[piece].charAt(bufferStarts[piece] + index - pieceStarts[piece]);
+        }
+
+        @Override
+        public void getChars(int start, int end, char[] dest, int destStart) {
+            if (start < 0 || end > length() || start > end)
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+            int piece = start < end ? pieceOf(start) : size;
+            while (start < end) {
+                int to = Math.min(end, pieceStarts[piece + 1]);
+                int offset = bufferStarts[piece] - pieceStarts[piece];
+                PieceTable.getChars(buffers[piece], start + offset, to + offset, dest, destStart);
+                destStart += to - start;
+                start = to;
+                piece++;
+            }
+        }
+
+        /**
+         * A view of the range, it is not copied.
+         */
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end)
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+            return new Range(this, start, end);
+        }
+
+        @Override
+        public String toString() {
+            return getText(0, length());
+        }
+
+        String getText(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return new String(chars);
+        }
+
+        private int pieceOf(int index) {
+            int piece = Arrays.binarySearch(pieceStarts, 0, size, index);
+            if (piece < 0)
+                return -piece - 2;
+            // empty pieces do not exist, so a start is never repeated
+            return piece;
+        }
+    }
+
+    private static final class Range implements CharSequence, GetChars {
+        private final Snapshot snapshot;
+        private final int start, end;
+
+        Range(Snapshot snapshot, int start, int end) {
+            this.snapshot = snapshot;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length())
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+            return snapshot.charAt(start + index);
+        }
+
+        @Override
+        public void getChars(int from, int to, char[] dest, int destStart) {
+            if (from < 0 || to > length() || from > to)
+                throw new IndexOutOfBoundsException("start: " + from + ", end: " + to + ", length: " + length());
+            snapshot.getChars(start + from, start + to, dest, destStart);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length() || from > to)
+                throw new IndexOutOfBoundsException("start: " + from + ", end: " + to + ", length: " + length());
+            return new Range(snapshot, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return snapshot.getText(start, end);
+        }
+    }
+
+    private final class View implements CharSequence {
+        private final int start, end;
+
+        View(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start)
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+            return PieceTable.this.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to)
+                throw new IndexOutOfBoundsException("start: " + from + ", end: " + to + ", length: " + length());
+            return new View(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return getText(start, end);
+        }
+    }
+}
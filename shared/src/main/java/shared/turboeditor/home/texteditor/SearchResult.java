@@ -19,11 +19,11 @@
 
 package shared.turboeditor.home.texteditor;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 public class SearchResult {
     // list of index
-    public LinkedList<Integer> foundIndex;
+    public ArrayList<Integer> foundIndex;
     public int textLength;
     public boolean isReplace;
     public String textToReplace;
@@ -32,7 +32,7 @@ public class SearchResult {
     public boolean isRegex;
 
 
-    public SearchResult(LinkedList<Integer> foundIndex, int textLength, boolean isReplace, String whatToSearch, String textToReplace, boolean isRegex) {
+    public SearchResult(ArrayList<Integer> foundIndex, int textLength, boolean isReplace, String whatToSearch, String textToReplace, boolean isRegex) {
         this.foundIndex = foundIndex;
         this.textLength = textLength;
         this.isReplace = isReplace;
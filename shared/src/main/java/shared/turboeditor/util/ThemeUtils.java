@@ -35,6 +35,14 @@ public class ThemeUtils {
         }
     }
 
+    /**
+     * The colors the editor takes from the theme follow the light theme preference.
+     */
+    public static void setEditorColors(Activity activity) {
+        if (PreferenceHelper.getLightTheme(activity))
+            activity.getTheme().applyStyle(R.style.EditorColorsLight, true);
+    }
+
     public static void setWindowsBackground(Activity activity) {
         boolean whiteTheme = PreferenceHelper.getLightTheme(activity);
         boolean darkTheme = PreferenceHelper.getDarkTheme(activity);
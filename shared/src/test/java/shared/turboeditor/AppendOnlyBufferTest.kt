@@ -0,0 +1,49 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.texteditor.AppendOnlyBuffer
+import shared.turboeditor.home.texteditor.PieceTable
+import kotlin.concurrent.thread
+
+class AppendOnlyBufferTest {
+
+    @Test
+    fun testAppendAcrossChunks() {
+        val buffer = AppendOnlyBuffer()
+        val expected = StringBuilder()
+        for (i in 0 until 3000) {
+            val text = "line $i\n"
+            buffer.append(text)
+            buffer.append('x')
+            expected.append(text).append('x')
+        }
+
+        assertEquals(expected.length, buffer.length)
+        assertEquals(expected.toString(), buffer.toString())
+        assertEquals(expected.substring(8000, 8400), buffer.subSequence(8000, 8400).toString())
+        val chars = CharArray(9000)
+        buffer.getChars(100, 9100, chars, 0)
+        assertEquals(expected.substring(100, 9100), String(chars))
+    }
+
+    @Test
+    fun testSnapshotReadWhileTheTableIsEdited() {
+        val table = PieceTable("")
+        val line = "0123456789abcdef\n"
+        repeat(1000) { table.insert(table.length, line) }
+        val snapshot = table.snapshot()
+        val expected = line.repeat(1000)
+
+        var read = ""
+        val reader = thread {
+            repeat(50) { read = snapshot.toString() }
+        }
+        // the added buffer keeps growing while the snapshot is read
+        repeat(20000) { table.insert(it % 100, "y") }
+        reader.join()
+
+        assertEquals(expected, read)
+        assertEquals(expected, snapshot.toString())
+    }
+}
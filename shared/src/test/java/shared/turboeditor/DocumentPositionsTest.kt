@@ -0,0 +1,83 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.texteditor.DocumentPositions
+import shared.turboeditor.home.texteditor.LineMap
+import shared.turboeditor.home.texteditor.PageSystem
+
+class DocumentPositionsTest {
+
+    // long enough not to be merged with its neighbours, 100 lines
+    private val padding = ("p".repeat(99) + "\n").repeat(100)
+
+    /**
+     * Rows of a layout that wraps the lines every four chars.
+     */
+    private class WrappedRows(private val lineMap: LineMap) : DocumentPositions.Rows {
+        private val starts = mutableListOf<Int>()
+
+        fun update() {
+            starts.clear()
+            for (line in 0 until lineMap.lineCount) {
+                val end = lineMap.getLineEnd(line)
+                var start = lineMap.getLineStart(line)
+                do {
+                    starts.add(start)
+                    start += 4
+                } while (start < end)
+            }
+        }
+
+        override fun getLineForOffset(offset: Int) = starts.indexOfLast { it <= offset }
+
+        override fun getLineStart(row: Int) = starts[row]
+    }
+
+    @Test
+    fun testPositionsOfThePageShown() {
+        val pageSystem = PageSystem(object : PageSystem.PageSystemInterface {
+            override fun onPageChanged(page: Int) {}
+        })
+        pageSystem.appendPage("zero\n$padding")
+        pageSystem.appendPage("one two three\nfour")
+        pageSystem.appendPage("five\n$padding")
+        pageSystem.goToPage(1)
+
+        var text = pageSystem.currentPageText
+        val lineMap = LineMap()
+        lineMap.setText(text)
+        val rows = WrappedRows(lineMap)
+        rows.update()
+        val positions = DocumentPositions(pageSystem, lineMap, rows)
+
+        assertEquals(4, positions.getRowOfLine(1))
+        assertEquals(0, positions.getLineOfRow(3))
+        assertEquals(2, positions.getRowOfOffset(9))
+        assertEquals(true, positions.isLineStart(4))
+        assertEquals(false, positions.isLineStart(2))
+
+        assertEquals(103, positions.getDocumentLine(1))
+        assertEquals(1, positions.getPageOfDocumentLine(103))
+        assertEquals(2, positions.getPageOfDocumentLine(104))
+        assertEquals(-1, positions.getLineOfDocumentLine(50))
+        assertEquals(0, positions.getPageOfDocumentLine(50))
+
+        // the pages after the one shown move with its edits
+        val lineCount = positions.documentLineCount
+        val nextPageStart = positions.getPageStart(2)
+        text = text.substring(0, 4) + "\n\n" + text.substring(4)
+        lineMap.onTextChanged(text, 4, 0, 2)
+        rows.update()
+
+        assertEquals(lineCount + 2, positions.documentLineCount)
+        assertEquals(106, positions.getStartingLine(2))
+        assertEquals(1, positions.getPageOfDocumentLine(105))
+        assertEquals(2, positions.getPageOfDocumentLine(106))
+        assertEquals(3, positions.getLineOfDocumentLine(105))
+        assertEquals(nextPageStart + 2, positions.getPageStart(2))
+        assertEquals(2, positions.getPageOfDocumentOffset(nextPageStart + 2))
+        assertEquals(1, positions.getPageOfDocumentOffset(nextPageStart + 1))
+        assertEquals(5, positions.getRowOfLine(3))
+    }
+}
@@ -0,0 +1,58 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.texteditor.FenwickTree
+
+class FenwickTreeTest {
+
+    @Test
+    fun testPrefixSums() {
+        val tree = FenwickTree(2)
+        val values = intArrayOf(3, 0, 5, 1, 7, 2, 0, 4, 6)
+        values.forEach { tree.append(it) }
+
+        tree.add(2, 10)
+        values[2] += 10
+
+        for (end in 0..values.size) {
+            assertEquals(values.take(end).sum(), tree.prefixSum(end))
+        }
+        assertEquals(values.sum(), tree.sum())
+    }
+
+    @Test
+    fun testIndexOf() {
+        val tree = FenwickTree()
+        intArrayOf(3, 0, 5, 1).forEach { tree.append(it) }
+
+        assertEquals(0, tree.indexOf(0))
+        assertEquals(0, tree.indexOf(2))
+        // the empty value at index 1 never contains a position
+        assertEquals(2, tree.indexOf(3))
+        assertEquals(2, tree.indexOf(7))
+        assertEquals(3, tree.indexOf(8))
+        assertEquals(4, tree.indexOf(9))
+    }
+
+    @Test
+    fun testSplice() {
+        val tree = FenwickTree()
+        val values = mutableListOf(3, 0, 5, 1, 7)
+        values.forEach { tree.append(it) }
+
+        tree.splice(1, 2, 4, 4, 4)
+        values.subList(1, 3).clear()
+        values.addAll(1, listOf(4, 4, 4))
+        tree.append(2)
+        values.add(2)
+        tree.splice(0, 2, 9)
+        values.subList(0, 2).clear()
+        values.add(0, 9)
+
+        assertEquals(values.size, tree.size())
+        for (end in 0..values.size) {
+            assertEquals(values.take(end).sum(), tree.prefixSum(end))
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Before
 import org.junit.Test
 import shared.turboeditor.home.HighlightColorProvider
 import shared.turboeditor.home.HighlightDriver
+import shared.turboeditor.home.HighlightInfo
 
 class GeneralHighlightDriverTest {
 
@@ -39,6 +40,34 @@ class GeneralHighlightDriverTest {
         assertEquals(7, highlights[1].start)
         assertEquals(11, highlights[1].end)
     }
+
+    @Test
+    fun testCommentInsideStringIsString() {
+        val text = "s = \"/* no */\"; // \"yes\""
+        val highlights = highlightDriver.highlightText(text, 0)
+
+        val string = text.indexOf('"')
+        val comment = text.indexOf("//")
+        assertEquals(listOf(
+                HighlightInfo(mockColorProvider.numberColor, 2, 3),
+                HighlightInfo(mockColorProvider.stringColor, string, string + 10),
+                HighlightInfo(mockColorProvider.numberColor, string + 10, string + 11),
+                HighlightInfo(mockColorProvider.commentColor, comment, text.length)
+        ), highlights)
+    }
+
+    @Test
+    fun testTokensOfATag() {
+        val text = "<a href=\"x\">"
+        val highlights = HighlightDriver(mockColorProvider, "html").highlightText(text, 0)
+
+        assertEquals(listOf(
+                HighlightInfo(mockColorProvider.keywordColor, 0, 3),
+                HighlightInfo(mockColorProvider.attrColor, 3, 8),
+                HighlightInfo(mockColorProvider.stringColor, 8, 11),
+                HighlightInfo(mockColorProvider.keywordColor, 11, 12)
+        ), highlights)
+    }
 }
 
 class MockColorProvider : HighlightColorProvider {
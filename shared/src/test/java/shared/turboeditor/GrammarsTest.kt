@@ -0,0 +1,57 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.highlight.Grammars
+import shared.turboeditor.home.highlight.Language
+import java.io.FileNotFoundException
+
+class GrammarsTest {
+
+    private val opened = mutableListOf<String>()
+
+    private val source = Grammars.Source { fileName ->
+        opened.add(fileName)
+        javaClass.classLoader!!.getResourceAsStream("grammars/$fileName")
+                ?: throw FileNotFoundException(fileName)
+    }
+
+    private fun tokens(language: Language, text: String): List<Triple<Int, Int, Int>> {
+        val tokens = mutableListOf<Triple<Int, Int, Int>>()
+        language.lexLine(text, 0, text.length, 0) { start, end, style -> tokens.add(Triple(start, end, style)) }
+        return tokens
+    }
+
+    @Test
+    fun testGrammarOfExtension() {
+        val grammars = Grammars(source)
+
+        assertEquals("html", grammars.grammarOf("xhtml"))
+        assertEquals("html", grammars.grammarOf("cshtml"))
+        assertEquals("lua", grammars.grammarOf("lua"))
+        assertEquals("code", grammars.grammarOf("java"))
+        assertEquals("config", grammars.grammarOf("nginx.conf"))
+        assertEquals("text", grammars.grammarOf("txt"))
+    }
+
+    @Test
+    fun testOnlyTheGrammarOfTheExtensionIsRead() {
+        val grammars = Grammars(source)
+
+        val language = grammars.forExtension("java")
+        assertEquals(listOf("index.json", "code.json"), opened)
+        // every extension of the grammar gets the same language
+        assertTrue(language === grammars.forExtension("cpp"))
+        assertEquals(2, opened.size)
+    }
+
+    @Test
+    fun testGrammarThatCannotBeReadColorsNothing() {
+        val grammars = Grammars(Grammars.Source { fileName ->
+            if (fileName == "index.json") source.open(fileName) else "{\"patterns\": [{".byteInputStream()
+        })
+
+        assertEquals(emptyList<Triple<Int, Int, Int>>(), tokens(grammars.forExtension("java"), "int a;"))
+    }
+}
@@ -0,0 +1,73 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.HighlightDriver
+import shared.turboeditor.home.highlight.TokenBuffer
+import java.lang.management.ManagementFactory
+
+class HighlightAllocationTest {
+
+    private val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    private fun allocatedBytes() = threads.getThreadAllocatedBytes(Thread.currentThread().id)
+
+    /**
+     * The least bytes allocated by a few rounds of passes: what the code allocates is allocated in
+     * every round, while the compiler can allocate in any of them when it deoptimizes.
+     */
+    private fun allocatedBy(passes: Int, pass: () -> Unit): Long {
+        val noise = -allocatedBytes() + allocatedBytes()
+        var least = Long.MAX_VALUE
+        for (round in 0 until 5) {
+            val before = allocatedBytes()
+            for (i in 0 until passes)
+                pass()
+            least = minOf(least, allocatedBytes() - before - noise)
+        }
+        return least
+    }
+
+    private fun source(lines: Int) = buildString {
+        for (i in 0 until lines) {
+            append("    /* comment $i */ public static int value$i = \"text\".length() + $i; // end\n")
+            if (i % 10 == 0)
+                append("/* a comment\n over two lines */\n")
+        }
+    }
+
+    @Test
+    fun testHighlightingTheSameRangeAllocatesNothing() {
+        for (extension in listOf("java", "html", "css", "sql", "py", "txt")) {
+            val text = source(200)
+            val driver = HighlightDriver(MockColorProvider(), extension)
+            val tokens = TokenBuffer()
+            driver.setText(text)
+            val start = text.length / 3
+            val end = start + 2500
+
+            driver.highlight(text, start, end, tokens)
+            val count = tokens.size()
+            assertEquals(extension, 0L, allocatedBy(100) { driver.highlight(text, start, end, tokens) })
+            assertEquals(count, tokens.size())
+        }
+    }
+
+    @Test
+    fun testScrollingOverLexedLinesAllocatesNothing() {
+        val text = source(500)
+        val driver = HighlightDriver(MockColorProvider(), "java")
+        val tokens = TokenBuffer()
+        driver.setText(text)
+        driver.highlight(text, 0, text.length, tokens)
+
+        val allocated = allocatedBy(1) {
+            var start = 0
+            while (start + 2500 < text.length) {
+                driver.highlight(text, start, start + 2500, tokens)
+                start += 100
+            }
+        }
+        assertEquals(0L, allocated)
+    }
+}
@@ -0,0 +1,60 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.highlight.HighlightCache
+import shared.turboeditor.home.highlight.TokenBuffer
+
+class HighlightCacheTest {
+
+    private fun tokens(count: Int) = TokenBuffer().apply {
+        for (i in 0 until count)
+            token(i * 10, i * 10 + 5, i)
+    }
+
+    @Test
+    fun testColorsOfTheSameText() {
+        val cache = HighlightCache(1024 * 1024)
+        cache.put(3, "page".hashCode(), tokens(4))
+
+        val into = TokenBuffer()
+        assertTrue(cache.get(3, "page".hashCode(), into))
+        assertEquals(4, into.size())
+        assertEquals(30, into.start(3))
+        assertEquals(35, into.end(3))
+        assertEquals(3, into.style(3))
+
+        assertFalse(cache.get(2, "page".hashCode(), into))
+        // the page was edited, its colors are dropped
+        assertFalse(cache.get(3, "edited page".hashCode(), into))
+        assertFalse(cache.get(3, "page".hashCode(), into))
+        assertEquals(0L, cache.getBytes())
+    }
+
+    @Test
+    fun testLeastRecentlyUsedPagesAreDropped() {
+        // room for three pages of 100 tokens
+        val pageBytes = 64 + 100 * 3 * 4L
+        val cache = HighlightCache(pageBytes * 3)
+        val into = TokenBuffer()
+        for (page in 0 until 3)
+            cache.put(page, page, tokens(100))
+        assertEquals(pageBytes * 3, cache.getBytes())
+
+        assertTrue(cache.get(0, 0, into))
+        cache.put(3, 3, tokens(100))
+
+        assertTrue(cache.get(0, 0, into))
+        assertFalse(cache.get(1, 1, into))
+        assertTrue(cache.get(2, 2, into))
+        assertTrue(cache.get(3, 3, into))
+        assertEquals(pageBytes * 3, cache.getBytes())
+
+        // too big to be kept at all
+        cache.put(4, 4, tokens(1000))
+        assertFalse(cache.get(4, 4, into))
+        assertEquals(pageBytes * 3, cache.getBytes())
+    }
+}
@@ -0,0 +1,90 @@
+package shared.turboeditor
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.HighlightDriver
+import shared.turboeditor.home.HighlightInfo
+import shared.turboeditor.home.HighlightWorker
+import shared.turboeditor.home.highlight.TokenBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class HighlightWorkerTest {
+
+    private val worker = Executors.newSingleThreadExecutor()
+    private val main = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
+    private val highlightWorker = HighlightWorker(MockColorProvider(), worker.asCoroutineDispatcher(), main)
+
+    @After
+    fun tearDown() {
+        highlightWorker.close()
+        worker.shutdown()
+        main.close()
+    }
+
+    private fun expected(text: String): List<HighlightInfo> {
+        return HighlightDriver(MockColorProvider(), "java").highlightText(text, 0)
+    }
+
+    private fun callback(result: CompletableDeferred<List<HighlightInfo>>) = object : HighlightWorker.Callback {
+        override fun onHighlighted(highlights: TokenBuffer) {
+            // the buffer is used again after the callback
+            result.complete((0 until highlights.size()).map {
+                HighlightInfo(highlights.style(it), highlights.start(it), highlights.end(it))
+            })
+        }
+    }
+
+    @Test
+    fun testEditsAreAppliedBeforeHighlighting() = runBlocking(main) {
+        var text = "int a;\n/* one */\nint b;"
+        highlightWorker.setText(text)
+        val first = CompletableDeferred<List<HighlightInfo>>()
+        highlightWorker.highlight("java", -1, 0, text.length, callback(first))
+        assertEquals(expected(text), withTimeout(5000) { first.await() })
+
+        // the comment is not closed anymore
+        val start = text.indexOf("*/")
+        text = text.substring(0, start) + text.substring(start + 2)
+        highlightWorker.onTextChanged(start, 2, "")
+        val second = CompletableDeferred<List<HighlightInfo>>()
+        highlightWorker.highlight("java", -1, 0, text.length, callback(second))
+        assertEquals(expected(text), withTimeout(5000) { second.await() })
+    }
+
+    @Test
+    fun testOutOfDateColorsAreNotDelivered() = runBlocking(main) {
+        val text = "int a;"
+        highlightWorker.setText(text)
+
+        // keeps the worker busy until the text changed
+        val edited = CountDownLatch(1)
+        worker.execute { edited.await() }
+
+        val stale = CompletableDeferred<List<HighlightInfo>>()
+        highlightWorker.highlight("java", -1, 0, text.length, callback(stale))
+        highlightWorker.onTextChanged(0, 0, "long ")
+        edited.countDown()
+
+        val fresh = CompletableDeferred<List<HighlightInfo>>()
+        highlightWorker.highlight("java", -1, 0, text.length + 5, callback(fresh))
+        assertEquals(expected("long $text"), withTimeout(5000) { fresh.await() })
+        assertEquals(false, stale.isCompleted)
+    }
+
+    @Test
+    fun testEditsAfterTheTextWasReplacedAreApplied() = runBlocking(main) {
+        highlightWorker.setText("int a;")
+        highlightWorker.onTextChanged(6, 0, "\n// done")
+        highlightWorker.onTextChanged(0, 3, "long")
+        val text = "long a;\n// done"
+        val result = CompletableDeferred<List<HighlightInfo>>()
+        highlightWorker.highlight("java", -1, 0, text.length, callback(result))
+        assertEquals(expected(text), withTimeout(5000) { result.await() })
+    }
+}
@@ -0,0 +1,147 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.highlight.IncrementalHighlighter
+import shared.turboeditor.home.highlight.Language
+import java.util.Random
+
+class IncrementalHighlighterTest {
+
+    private fun tokens(highlighter: IncrementalHighlighter, text: CharSequence, start: Int = 0,
+                       end: Int = text.length): List<Triple<Int, Int, Int>> {
+        val tokens = mutableListOf<Triple<Int, Int, Int>>()
+        highlighter.highlight(text, start, end) { tokenStart, tokenEnd, style ->
+            tokens.add(Triple(tokenStart, tokenEnd, style))
+        }
+        return tokens
+    }
+
+    @Test
+    fun testCommentOpenedAboveTheRange() {
+        val text = "int a;\n/* one\ntwo\nthree */ int b;"
+        val highlighter = IncrementalHighlighter(Language.forExtension("java"))
+
+        val start = text.indexOf("two")
+        val tokens = tokens(highlighter, text, start, text.length)
+
+        assertEquals(Triple(start, start + 3, Language.STYLE_COMMENT), tokens[0])
+        val close = text.indexOf("*/") + 2
+        assertEquals(Triple(start + 4, close, Language.STYLE_COMMENT), tokens[1])
+        val keyword = text.lastIndexOf("int")
+        assertEquals(true, tokens.contains(Triple(keyword, keyword + 3, Language.STYLE_KEYWORD)))
+    }
+
+    @Test
+    fun testLineCommentDoesNotOpenABlock() {
+        val text = "// see /* here\nint a;"
+        val highlighter = IncrementalHighlighter(Language.forExtension("java"))
+
+        val keyword = text.indexOf("int")
+        assertEquals(true, tokens(highlighter, text).contains(Triple(keyword, keyword + 3, Language.STYLE_KEYWORD)))
+    }
+
+    @Test
+    fun testTextStartingInAComment() {
+        val language = Language.forExtension("java")
+        val text = "int a; */ int b;"
+        val highlighter = IncrementalHighlighter(language)
+        highlighter.setText(text)
+        val keyword = text.lastIndexOf("int")
+        assertEquals(Triple(0, 3, Language.STYLE_KEYWORD), tokens(highlighter, text)[0])
+
+        // the page before ends in a comment
+        highlighter.setStartState(language.lexLines("/* open", 0, 7, 0))
+        val close = text.indexOf("*/") + 2
+        assertEquals(listOf(Triple(0, close, Language.STYLE_COMMENT), Triple(keyword, keyword + 3, Language.STYLE_KEYWORD)),
+                tokens(highlighter, text).subList(0, 2))
+    }
+
+    @Test
+    fun testLinesLexedAheadGiveTheSameTokens() {
+        val text = StringBuilder()
+        repeat(100) { text.append("int a$it; /* one\n two */ String s = \"$it\";\n") }
+        val highlighter = IncrementalHighlighter(Language.forExtension("java"))
+        highlighter.setText(text)
+
+        var steps = 0
+        while (highlighter.lexAhead(text, 30))
+            steps++
+        assertEquals(6, steps)
+
+        val start = text.length / 2
+        assertEquals(tokens(IncrementalHighlighter(Language.forExtension("java")), text, start, text.length),
+                tokens(highlighter, text, start, text.length))
+    }
+
+    @Test
+    fun testLongLinesAreLeftPlain() {
+        var text = "int a;\n/* " + "x".repeat(100) + "\nint b;"
+        val highlighter = IncrementalHighlighter(Language.forExtension("java"))
+        highlighter.setMaxLineLength(50)
+
+        // the comment the long line opens is not seen
+        val keyword = text.lastIndexOf("int")
+        val tokens = tokens(highlighter, text)
+        assertEquals(true, tokens.contains(Triple(keyword, keyword + 3, Language.STYLE_KEYWORD)))
+        assertEquals(listOf(1), highlighter.degradedLines.toList())
+        assertEquals(true, tokens.none { it.first in 7 until keyword })
+
+        // short enough once edited
+        val start = text.indexOf("x")
+        text = text.substring(0, start) + text.substring(start + 60)
+        highlighter.onTextChanged(start, 60, "")
+        val close = text.length
+        assertEquals(Triple(keyword - 60, close, Language.STYLE_COMMENT), tokens(highlighter, text).last())
+        assertEquals(0, highlighter.degradedLines.size)
+    }
+
+    @Test
+    fun testRangeLexedInSlices() {
+        val text = StringBuilder()
+        repeat(50) { text.append("int a$it; /* one\n two */ String s = \"$it\";\n") }
+        val highlighter = IncrementalHighlighter(Language.forExtension("java"))
+        highlighter.setText(text)
+
+        // a deadline that is already past lets a line be lexed at a time
+        val start = text.length / 2
+        var slices = 1
+        while (!highlighter.lexRange(text, start, text.length, System.nanoTime()))
+            slices++
+        // the text ends with an empty line, out of the range
+        assertEquals(highlighter.lineCount - 1, slices)
+        assertEquals(true, highlighter.lexRange(text, start, text.length, System.nanoTime()))
+
+        assertEquals(tokens(IncrementalHighlighter(Language.forExtension("java")), text, start, text.length),
+                tokens(highlighter, text, start, text.length))
+    }
+
+    @Test
+    fun testEditsGiveTheTokensOfTheWholeText() {
+        val random = Random(3)
+        val pieces = listOf("/*", "*/", "\n", "int ", "\"s\" ", "// c", "x = 1;", "<!--", "-->", "\n\n")
+        val text = StringBuilder()
+        repeat(200) { text.append(pieces[random.nextInt(pieces.size)]) }
+
+        for (extension in listOf("java", "html", "txt")) {
+            val highlighter = IncrementalHighlighter(Language.forExtension(extension))
+            highlighter.setText(text)
+            repeat(300) {
+                // look at a part of the text, then edit it
+                val from = random.nextInt(text.length + 1)
+                tokens(highlighter, text, from, minOf(text.length, from + random.nextInt(200)))
+                if (random.nextInt(4) == 0)
+                    highlighter.lexAhead(text, 1 + random.nextInt(20))
+
+                val start = random.nextInt(text.length + 1)
+                val before = random.nextInt(minOf(8, text.length - start) + 1)
+                val inserted = if (random.nextBoolean()) pieces[random.nextInt(pieces.size)] else ""
+                text.replace(start, start + before, inserted)
+                highlighter.onTextChanged(start, before, inserted)
+
+                assertEquals(tokens(IncrementalHighlighter(Language.forExtension(extension)), text),
+                        tokens(highlighter, text))
+            }
+        }
+    }
+}
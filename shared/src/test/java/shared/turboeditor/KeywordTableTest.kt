@@ -0,0 +1,54 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.highlight.KeywordTable
+import shared.turboeditor.home.highlight.Language
+
+class KeywordTableTest {
+
+    private fun KeywordTable.contains(word: String) = contains(word, 0, word.length)
+
+    private fun keywords(fileExtension: String, line: String): List<String> {
+        val keywords = mutableListOf<String>()
+        Language.forExtension(fileExtension).lexLine(line, 0, line.length, 0) { start, end, style ->
+            if (style == Language.STYLE_KEYWORD)
+                keywords.add(line.substring(start, end))
+        }
+        return keywords
+    }
+
+    @Test
+    fun testEveryKeywordIsFound() {
+        val words = (0 until 500).map { "word$it" }
+        val table = KeywordTable.ignoringCase(*words.toTypedArray())
+
+        for (word in words)
+            assertTrue(word, table.contains(word))
+        assertFalse(table.contains("word500"))
+        assertFalse(table.contains("word"))
+        assertFalse(table.contains(""))
+    }
+
+    @Test
+    fun testWordInsideText() {
+        val text = "x = public static;"
+        val table = KeywordTable.ignoringCase("public", "static")
+
+        assertTrue(table.contains(text, 4, 10))
+        assertTrue(table.contains(text, 11, 17))
+        assertFalse(table.contains(text, 4, 9))
+        assertFalse(table.contains(text, 0, 1))
+    }
+
+    @Test
+    fun testCase() {
+        assertEquals(listOf("select", "SeLeCt"), keywords("sql", "select SeLeCt"))
+        assertEquals(listOf("local", "string.format", "STRING.FORMAT"),
+                keywords("lua", "local LOCAL string.format STRING.FORMAT"))
+        // python is case sensitive
+        assertEquals(listOf("True", "None", "if"), keywords("py", "true True none None IF if"))
+    }
+}
@@ -0,0 +1,46 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.texteditor.LineMap
+import java.util.Random
+
+class LineMapTest {
+
+    private fun lines(text: CharSequence): List<Pair<Int, Int>> {
+        val map = LineMap()
+        map.setText(text)
+        return (0 until map.lineCount).map { Pair(map.getLineStart(it), map.getLineEnd(it)) }
+    }
+
+    @Test
+    fun testLinesOfOffsets() {
+        val text = "one\n\ntwo\n"
+        val map = LineMap()
+        map.setText(text)
+
+        assertEquals(4, map.lineCount)
+        assertEquals(listOf(0, 0, 0, 0, 1, 2, 2, 2, 2, 3), (0..text.length).map { map.getLineOfOffset(it) })
+        assertEquals(listOf(Pair(0, 3), Pair(4, 4), Pair(5, 8), Pair(9, 9)), lines(text))
+    }
+
+    @Test
+    fun testEditsGiveTheLinesOfTheWholeText() {
+        val random = Random(5)
+        val pieces = listOf("\n", "a", "bc\nd", "\n\n", "efg", "h\n")
+        val text = StringBuilder("start\nof the\ntext")
+        val map = LineMap()
+        map.setText(text)
+
+        repeat(500) {
+            val start = random.nextInt(text.length + 1)
+            val before = random.nextInt(minOf(6, text.length - start) + 1)
+            val inserted = if (random.nextBoolean()) pieces[random.nextInt(pieces.size)] else ""
+            text.replace(start, start + before, inserted)
+            map.onTextChanged(text, start, before, inserted.length)
+
+            assertEquals(text.length, map.length())
+            assertEquals(lines(text), (0 until map.lineCount).map { Pair(map.getLineStart(it), map.getLineEnd(it)) })
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.texteditor.LineTree
+import java.util.Random
+
+class LineTreeTest {
+
+    @Test
+    fun testStartsAndIndexOf() {
+        val tree = LineTree<String>()
+        intArrayOf(3, 0, 5, 1).forEach { tree.append(it, null) }
+
+        assertEquals(listOf(0, 3, 3, 8, 9), (0..4).map { tree.getStart(it) })
+        assertEquals(9, tree.length())
+        assertEquals(0, tree.indexOf(0))
+        assertEquals(0, tree.indexOf(2))
+        // the empty line at index 1 never contains an offset
+        assertEquals(2, tree.indexOf(3))
+        assertEquals(2, tree.indexOf(7))
+        assertEquals(3, tree.indexOf(8))
+        assertEquals(4, tree.indexOf(9))
+    }
+
+    @Test
+    fun testSpliceKeepsTheValuesAround() {
+        val tree = LineTree<String>()
+        listOf("a", "b", "c", "d").forEach { tree.append(2, it) }
+
+        tree.splice(1, 2, intArrayOf(4, 4, 4, 0), 3)
+        tree.set(2, "x")
+
+        assertEquals(listOf("a", null, "x", null, "d"), (0 until tree.size()).map { tree.get(it) })
+        assertEquals(listOf(2, 4, 4, 4, 2), (0 until tree.size()).map { tree.getLength(it) })
+        assertEquals(16, tree.length())
+    }
+
+    @Test
+    fun testRandomEdits() {
+        val random = Random(7)
+        val tree = LineTree<Int>()
+        val lengths = mutableListOf<Int>()
+        val values = mutableListOf<Int?>()
+        repeat(50) {
+            tree.append(it % 7, it)
+            lengths.add(it % 7)
+            values.add(it)
+        }
+
+        repeat(500) {
+            val index = random.nextInt(lengths.size)
+            when (random.nextInt(3)) {
+                0 -> {
+                    tree.addLength(index, 3)
+                    lengths[index] += 3
+                }
+                1 -> {
+                    tree.setLength(index, 1)
+                    lengths[index] = 1
+                }
+                else -> {
+                    val count = random.nextInt(minOf(4, lengths.size - index) + 1)
+                    val newLengths = IntArray(random.nextInt(4) + if (count == lengths.size) 1 else 0) { random.nextInt(9) }
+                    tree.splice(index, count, newLengths, newLengths.size)
+                    repeat(count) {
+                        lengths.removeAt(index)
+                        values.removeAt(index)
+                    }
+                    lengths.addAll(index, newLengths.toList())
+                    values.addAll(index, newLengths.map { null })
+                }
+            }
+        }
+
+        assertEquals(lengths.size, tree.size())
+        assertEquals(lengths, (0 until tree.size()).map { tree.getLength(it) })
+        assertEquals(values, (0 until tree.size()).map { tree.get(it) })
+        for (end in 0..lengths.size) {
+            assertEquals(lengths.take(end).sum(), tree.getStart(end))
+        }
+        for (offset in 0 until lengths.sum()) {
+            val line = tree.indexOf(offset)
+            assertTrue(tree.getStart(line) <= offset && offset < tree.getStart(line + 1))
+        }
+    }
+}
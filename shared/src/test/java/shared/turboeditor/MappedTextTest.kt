@@ -0,0 +1,77 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.texteditor.MappedPageScanner
+import shared.turboeditor.home.texteditor.MappedText
+import shared.turboeditor.home.texteditor.PageTable
+import java.io.File
+import java.io.FileInputStream
+import java.nio.charset.Charset
+
+class MappedTextTest {
+
+    @Test
+    fun testUtf8WithCarriageReturns() {
+        val text = (0 until 20000).joinToString("") { "line $it àè€\r\n" }
+        assertMappedText(text.toByteArray(Charsets.UTF_8), "UTF-8", text.replace("\r\n", "\n"))
+    }
+
+    @Test
+    fun testUtf16WithBom() {
+        val text = (0 until 20000).joinToString("") { "line $it àè€\n" }
+        val bytes = byteArrayOf(0xff.toByte(), 0xfe.toByte()) + text.toByteArray(Charsets.UTF_16LE)
+        assertMappedText(bytes, "UTF-16", text, 2)
+    }
+
+    @Test
+    fun testUtf8WithBom() {
+        val text = (0 until 20000).joinToString("") { "line $it àè€\n" }
+        val bytes = byteArrayOf(0xef.toByte(), 0xbb.toByte(), 0xbf.toByte()) + text.toByteArray(Charsets.UTF_8)
+        assertMappedText(bytes, "UTF-8", text, 3)
+    }
+
+    @Test
+    fun testSingleLongLine() {
+        val text = "x".repeat(120000)
+        assertMappedText(text.toByteArray(Charsets.ISO_8859_1), "ISO-8859-1", text)
+    }
+
+    private fun assertMappedText(bytes: ByteArray, encoding: String, expected: String, bomLength: Int = 0) {
+        assertTrue(MappedPageScanner.isSupported(encoding))
+        val file = File.createTempFile("mapped", ".txt")
+        try {
+            file.writeBytes(bytes)
+            val inputStream = FileInputStream(file)
+            val scanner = MappedPageScanner(inputStream.channel, encoding)
+            val pageTable = scanner.pageTable
+            // pages are added while the file is scanned
+            val mappedText = MappedText(inputStream, inputStream.channel,
+                    PageTable(pageTable.charsetName, pageTable.newLineBytes))
+            while (scanner.scanNextPage()) {
+                val page = pageTable.size() - 1
+                mappedText.addPage(pageTable.getByteStart(page), pageTable.getByteEnd(page),
+                        pageTable.getCharLength(page), pageTable.getNewLines(page))
+            }
+
+            // the BOM is not part of the text, it is written back when the file is saved
+            assertEquals(bomLength, pageTable.bomLength)
+            assertEquals(bomLength.toLong(), pageTable.getByteStart(0))
+            assertEquals(expected.length, mappedText.length)
+            assertEquals(expected, mappedText.toString())
+            for (index in expected.indices.reversed() step 997)
+                assertEquals(expected[index], mappedText[index])
+            assertEquals(expected.substring(49990, 70010), mappedText.subSequence(49990, 70010).toString())
+
+            var newLines = 0
+            for (page in 0 until pageTable.size())
+                newLines += pageTable.getNewLines(page)
+            // the separators are new lines too
+            assertEquals(expected.count { it == '\n' }, newLines + pageTable.size() - 1)
+            mappedText.close()
+        } finally {
+            file.delete()
+        }
+    }
+}
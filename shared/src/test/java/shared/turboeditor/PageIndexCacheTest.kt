@@ -0,0 +1,40 @@
+package shared.turboeditor
+
+import org.junit.Assert.*
+import org.junit.Test
+import shared.turboeditor.files.PageIndexCache
+import shared.turboeditor.home.texteditor.PageTable
+import java.io.File
+import java.nio.file.Files
+
+class PageIndexCacheTest {
+
+    @Test
+    fun testIndexIsUsedUntilTheFileChanges() {
+        val directory = Files.createTempDirectory("index").toFile()
+        val file = File(directory, "file.txt")
+        file.writeText("a\nbc\r\nd")
+
+        val pageTable = PageTable("UTF-8", 1)
+        pageTable.addPage(0, 1, 1, 0)
+        pageTable.addPage(2, 8, 4, 1)
+        pageTable.setCarriageReturns()
+        pageTable.setFile(file.path, file.length(), file.lastModified())
+
+        val cache = PageIndexCache(File(directory, PageIndexCache.DIRECTORY))
+        cache.save("UTF-8", pageTable, file)
+
+        val entry = cache.load(file)!!
+        assertEquals("UTF-8", entry.encoding)
+        val loaded = entry.pageTable
+        assertEquals(2, loaded.size())
+        assertEquals(2, loaded.getByteStart(1))
+        assertEquals(8, loaded.getByteEnd(1))
+        assertEquals(4, loaded.getCharLength(1))
+        assertEquals(1, loaded.getNewLines(1))
+        assertTrue(loaded.hasCarriageReturns())
+
+        file.appendText("e")
+        assertNull(cache.load(file))
+    }
+}
@@ -0,0 +1,73 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.highlight.Language
+import shared.turboeditor.home.highlight.PageStates
+import shared.turboeditor.home.texteditor.PageSystem
+
+class PageStatesTest {
+
+    // long enough not to be merged with its neighbours, in lines short enough to be lexed
+    private val padding = ("p".repeat(99) + "\n").repeat(100)
+
+    private fun newPageSystem(vararg pages: String): PageSystem {
+        val pageSystem = PageSystem(object : PageSystem.PageSystemInterface {
+            override fun onPageChanged(page: Int) {}
+        })
+        for (page in pages)
+            pageSystem.appendPage(page)
+        return pageSystem
+    }
+
+    @Test
+    fun testPagesStartInTheCommentOpenedBefore() {
+        val pageSystem = newPageSystem("int a;\n/* $padding", "still a comment $padding", "*/ int b; $padding")
+        val states = PageStates(Language.forExtension("java"))
+        val document = pageSystem.getDocumentSnapshot(pageSystem.currentPageText)
+
+        assertEquals(0, states.getState(0))
+        assertEquals(-1, states.getState(2))
+        assertTrue(states.lexNextPage(document))
+        assertTrue(states.lexNextPage(document))
+        assertFalse(states.lexNextPage(document))
+        assertNotEquals(0, states.getState(1))
+        assertEquals(states.getState(1), states.getState(2))
+    }
+
+    @Test
+    fun testLongLinesAreNotLexed() {
+        val pageSystem = newPageSystem("int a;\n/* ${"p".repeat(10000)}", "int b; $padding")
+        val states = PageStates(Language.forExtension("java"))
+        states.setMaxLineLength(1000)
+
+        states.lexNextPage(pageSystem.getDocumentSnapshot(pageSystem.currentPageText))
+        assertEquals(0, states.getState(1))
+    }
+
+    @Test
+    fun testChangedPagesAreLexedAgain() {
+        val pageSystem = newPageSystem("int a;\n/* $padding", "still a comment $padding", "*/ int b; $padding")
+        val states = PageStates(Language.forExtension("java"))
+        states.lexNextPage(pageSystem.getDocumentSnapshot(pageSystem.currentPageText))
+        states.lexNextPage(pageSystem.getDocumentSnapshot(pageSystem.currentPageText))
+        assertEquals(Int.MAX_VALUE, pageSystem.takeFirstChangedPage())
+
+        // the comment is closed on the first page
+        pageSystem.savePage("int a;\n/* */ $padding")
+        pageSystem.goToPage(1)
+        val firstChangedPage = pageSystem.takeFirstChangedPage()
+        assertEquals(0, firstChangedPage)
+        states.invalidateFrom(firstChangedPage)
+        assertEquals(-1, states.getState(1))
+
+        states.lexNextPage(pageSystem.getDocumentSnapshot(pageSystem.currentPageText))
+        assertEquals(0, states.getState(1))
+        // nothing after a page that is known changed
+        states.invalidateFrom(Int.MAX_VALUE)
+        assertEquals(0, states.getState(1))
+    }
+}
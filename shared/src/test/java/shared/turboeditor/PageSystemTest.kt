@@ -0,0 +1,136 @@
+package shared.turboeditor
+
+import org.junit.Assert.*
+import org.junit.Test
+import shared.turboeditor.home.texteditor.PageSystem
+import java.util.regex.Pattern
+
+class PageSystemTest {
+
+    // long enough not to be merged with its neighbours
+    private val padding = "p".repeat(10000)
+
+    private fun newPageSystem(vararg pages: String): PageSystem {
+        val pageSystem = PageSystem(object : PageSystem.PageSystemInterface {
+            override fun onPageChanged(page: Int) {}
+        })
+        for (page in pages)
+            pageSystem.appendPage(page)
+        return pageSystem
+    }
+
+    @Test
+    fun testChangedPagesAreDirty() {
+        val pageSystem = newPageSystem("$padding\nb", "${padding}c", "d\n$padding")
+
+        var snapshot = pageSystem.getDocumentSnapshot(pageSystem.currentPageText)
+        assertEquals(-1, snapshot.firstDirtyPage)
+
+        pageSystem.goToPage(1)
+        snapshot = pageSystem.getDocumentSnapshot("${padding}c\nf")
+        assertEquals(1, snapshot.firstDirtyPage)
+        assertFalse(snapshot.isDirty(2))
+        assertEquals("$padding\nb\n${padding}c\nf\nd\n$padding", snapshot.toString())
+        assertEquals(padding.length + 3, snapshot.getPageStart(1))
+        assertEquals(2 * padding.length + 6, snapshot.getPageEnd(1))
+        assertEquals(1, snapshot.getNewLines(1))
+    }
+
+    @Test
+    fun testSaveKeepsLaterChanges() {
+        val pageSystem = newPageSystem(padding, padding, padding)
+
+        pageSystem.savePage("x$padding")
+        val snapshot = pageSystem.getDocumentSnapshot(pageSystem.currentPageText)
+        // changed while the snapshot is being written
+        pageSystem.goToPage(2)
+        pageSystem.savePage("y$padding")
+
+        pageSystem.onDocumentSaved(snapshot, null)
+        val next = pageSystem.getDocumentSnapshot(pageSystem.currentPageText)
+        assertFalse(next.isDirty(0))
+        assertEquals(2, next.firstDirtyPage)
+        assertNull(next.savedPages)
+    }
+
+    @Test
+    fun testReplaceAll() {
+        val pageSystem = newPageSystem("cat dog", "dog", "bird\ndog dog")
+
+        val changedPages = pageSystem.replaceAll(pageSystem.currentPageText,
+                Pattern.compile("dog", Pattern.LITERAL), "fox\n")
+        assertEquals(3, changedPages)
+        assertEquals("cat fox\n\nfox\n\nbird\nfox\n fox\n", pageSystem.getDocumentText(pageSystem.currentPageText).toString())
+        assertEquals(2, pageSystem.getStartingLine(1))
+        assertEquals(4, pageSystem.getStartingLine(2))
+        assertEquals(4, pageSystem.getLineCount(2))
+        assertEquals("fox\n", pageSystem.getPageText(1))
+    }
+
+    @Test
+    fun testReplaceAllAcrossPages() {
+        val pageSystem = newPageSystem("one foo", "bar two", "three\n", "four")
+        pageSystem.goToPage(3)
+
+        val changedPages = pageSystem.replaceAll(pageSystem.currentPageText,
+                Pattern.compile("foo\nbar|\n\n"), "-")
+        assertEquals(2, changedPages)
+        assertEquals("one - two\nthree-four", pageSystem.getDocumentText(pageSystem.currentPageText).toString())
+        // the pages a match went across are one page
+        assertEquals(2, pageSystem.pageCount)
+        assertEquals("one - two", pageSystem.getPageText(0))
+        assertEquals(1, pageSystem.currentPage)
+        assertEquals("three-four", pageSystem.currentPageText)
+        assertEquals(1, pageSystem.getStartingLine(1))
+    }
+
+    @Test
+    fun testReplaceAllAnchorsMatchAtTheBoundsOfTheDocument() {
+        val pageSystem = newPageSystem("one", "two", "three")
+
+        pageSystem.replaceAll(pageSystem.currentPageText, Pattern.compile("^|$"), "|")
+        assertEquals("|one\ntwo\nthree|", pageSystem.getDocumentText(pageSystem.currentPageText).toString())
+        assertEquals(3, pageSystem.pageCount)
+
+        pageSystem.replaceAll(pageSystem.currentPageText, Pattern.compile("(?m)^t"), "T")
+        assertEquals("|one\nTwo\nThree|", pageSystem.getDocumentText(pageSystem.currentPageText).toString())
+        assertEquals("Two", pageSystem.getPageText(1))
+    }
+
+    @Test
+    fun testLongPageIsSplitWhenLeft() {
+        val line = "x".repeat(99) + "\n"
+        val pageSystem = newPageSystem(padding, line.repeat(3000), padding)
+        val text = pageSystem.getDocumentText(pageSystem.currentPageText).toString()
+
+        pageSystem.goToPage(1)
+        pageSystem.goToPage(2)
+
+        assertTrue(pageSystem.pageCount > 3)
+        assertEquals(pageSystem.pageCount - 1, pageSystem.currentPage)
+        assertEquals(padding, pageSystem.currentPageText)
+        assertEquals(text, pageSystem.getDocumentText(pageSystem.currentPageText).toString())
+        var lines = 0
+        for (page in 0 until pageSystem.pageCount) {
+            assertTrue(pageSystem.getPageLength(page) <= 100000)
+            assertEquals(lines, pageSystem.getStartingLine(page))
+            lines += pageSystem.getLineCount(page)
+        }
+        assertEquals(3003, pageSystem.lineCount)
+    }
+
+    @Test
+    fun testShortPageIsMergedWhenLeft() {
+        val pageSystem = newPageSystem(padding, "c", "d\n$padding")
+
+        pageSystem.goToPage(1)
+        pageSystem.goToPage(2)
+
+        assertEquals(2, pageSystem.pageCount)
+        assertEquals(1, pageSystem.currentPage)
+        assertEquals("$padding\nc", pageSystem.getPageText(0))
+        assertEquals(2, pageSystem.getLineCount(0))
+        assertEquals(2, pageSystem.getStartingLine(1))
+        assertEquals("d\n$padding", pageSystem.currentPageText)
+    }
+}
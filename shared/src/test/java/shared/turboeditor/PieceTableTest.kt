@@ -0,0 +1,133 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import shared.turboeditor.home.texteditor.PieceTable
+import java.util.Random
+import java.util.regex.Pattern
+
+class PieceTableTest {
+
+    @Test
+    fun testInsertAndDelete() {
+        val pieceTable = PieceTable("hello world")
+
+        pieceTable.insert(5, ",")
+        pieceTable.insert(pieceTable.length, "!")
+        pieceTable.delete(0, 1)
+        pieceTable.insert(0, "H")
+
+        assertEquals("Hello, world!", pieceTable.toString())
+        assertEquals('w', pieceTable[7])
+        assertEquals("world", pieceTable.subSequence(7, 12).toString())
+    }
+
+    @Test
+    fun testTypingExtendsTheSamePiece() {
+        val pieceTable = PieceTable("ab")
+
+        for (c in "typing") {
+            pieceTable.insert(pieceTable.length - 1, c.toString())
+        }
+
+        assertEquals("atypingb", pieceTable.toString())
+        assertEquals(3, pieceTable.pieceCount)
+    }
+
+    @Test
+    fun testOriginalBufferGrows() {
+        val original = StringBuilder("first")
+        val pieceTable = PieceTable(original)
+
+        pieceTable.insert(pieceTable.length, "!")
+        original.append("\nsecond")
+        pieceTable.appendOriginal()
+        original.append("\nthird")
+        pieceTable.appendOriginal()
+
+        assertEquals("first!\nsecond\nthird", pieceTable.toString())
+        assertEquals(3, pieceTable.pieceCount)
+    }
+
+    @Test
+    fun testSnapshotIsNotChangedByEdits() {
+        val pieceTable = PieceTable("hello world")
+        pieceTable.insert(5, ",")
+        val snapshot = pieceTable.snapshot()
+
+        pieceTable.delete(0, 6)
+        pieceTable.insert(0, "bye")
+
+        assertEquals("hello, world", snapshot.toString())
+        val chars = CharArray(7)
+        snapshot.getChars(3, 10, chars, 0)
+        assertEquals("lo, wor", String(chars))
+        assertEquals("bye world", pieceTable.toString())
+    }
+
+    @Test
+    fun testSnapshotCanBeMatched() {
+        val pieceTable = PieceTable("one two")
+        pieceTable.insert(3, " and")
+        pieceTable.insert(pieceTable.length, " three")
+        val snapshot = pieceTable.snapshot()
+
+        val matcher = Pattern.compile("\\w+").matcher(snapshot)
+        val words = ArrayList<String>()
+        while (matcher.find())
+            words.add(matcher.group())
+        assertEquals(listOf("one", "and", "two", "three"), words)
+
+        val range = snapshot.subSequence(4, 13)
+        assertEquals("and two t", range.toString())
+        assertEquals("two", range.subSequence(4, 7).toString())
+        assertEquals('t', range[8])
+    }
+
+    @Test
+    fun testRandomEditsMatchStringBuilder() {
+        val random = Random(42)
+        val expected = StringBuilder("the quick brown fox\njumps over\nthe lazy dog\n")
+        val pieceTable = PieceTable(expected.toString())
+
+        for (i in 0 until 2000) {
+            if (random.nextBoolean() || expected.isEmpty()) {
+                val offset = random.nextInt(expected.length + 1)
+                val text = "x".repeat(random.nextInt(5) + 1) + if (random.nextInt(4) == 0) "\n" else ""
+                expected.insert(offset, text)
+                pieceTable.insert(offset, text)
+            } else {
+                val start = random.nextInt(expected.length)
+                val end = start + random.nextInt(Math.min(8, expected.length - start) + 1)
+                expected.delete(start, end)
+                pieceTable.delete(start, end)
+            }
+
+            assertEquals(expected.length, pieceTable.length)
+            if (expected.isNotEmpty()) {
+                val index = random.nextInt(expected.length)
+                assertEquals(expected[index], pieceTable[index])
+            }
+        }
+
+        assertEquals(expected.toString(), pieceTable.toString())
+        assertTrue(pieceTable.pieceCount > 1)
+    }
+
+    @Test
+    fun testHasOriginal() {
+        val pieceTable = PieceTable("hello world")
+        pieceTable.replace(0, 5, "HELLO")
+
+        assertFalse(pieceTable.hasOriginal(0, 5))
+        assertTrue(pieceTable.hasOriginal(4, 6))
+        assertFalse(pieceTable.hasOriginal(3, 3))
+
+        // a range copied into the added buffer is not read from the original one anymore
+        pieceTable.replace(5, 11, pieceTable.getText(5, 11))
+        assertFalse(pieceTable.hasOriginal(0, pieceTable.length))
+        assertEquals("HELLO world", pieceTable.toString())
+    }
+}
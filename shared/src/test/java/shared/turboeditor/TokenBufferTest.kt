@@ -0,0 +1,56 @@
+package shared.turboeditor
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import shared.turboeditor.home.highlight.TokenBuffer
+
+class TokenBufferTest {
+
+    private fun tokens(vararg tokens: Triple<Int, Int, Int>) = TokenBuffer().apply {
+        tokens.forEach { token(it.first, it.second, it.third) }
+    }
+
+    private fun TokenBuffer.toList() = (0 until size()).map { Triple(start(it), end(it), style(it)) }
+
+    @Test
+    fun testTokensMoveWithTheText() {
+        // "int a = 10;" with the keyword, the number and the symbol colored
+        val buffer = tokens(Triple(0, 3, 1), Triple(8, 10, 6), Triple(10, 11, 6))
+
+        // "int ab = 10;"
+        buffer.onTextChanged(5, 0, 1)
+        assertEquals(listOf(Triple(0, 3, 1), Triple(9, 11, 6), Triple(11, 12, 6)), buffer.toList())
+
+        // typed at the end and at the start of a token, the new chars are not colored
+        buffer.onTextChanged(3, 0, 1)
+        buffer.onTextChanged(10, 0, 2)
+        assertEquals(listOf(Triple(0, 3, 1), Triple(12, 14, 6), Triple(14, 15, 6)), buffer.toList())
+    }
+
+    @Test
+    fun testRemovedTextTakesItsColorsAway() {
+        val buffer = tokens(Triple(0, 3, 1), Triple(4, 6, 5), Triple(8, 10, 6))
+
+        // part of the first token and the whole second one are replaced
+        buffer.onTextChanged(2, 5, 1)
+        assertEquals(listOf(Triple(0, 2, 1), Triple(4, 6, 6)), buffer.toList())
+
+        buffer.onTextChanged(0, 6, 0)
+        assertEquals(0, buffer.size())
+    }
+
+    @Test
+    fun testIndexAfter() {
+        val buffer = tokens(Triple(0, 3, 1), Triple(8, 10, 6), Triple(10, 11, 6))
+
+        assertEquals(0, buffer.indexAfter(0))
+        assertEquals(1, buffer.indexAfter(3))
+        assertEquals(1, buffer.indexAfter(9))
+        assertEquals(2, buffer.indexAfter(10))
+        assertEquals(3, buffer.indexAfter(11))
+
+        val copy = TokenBuffer(1)
+        copy.set(buffer)
+        assertEquals(buffer.toList(), copy.toList())
+    }
+}